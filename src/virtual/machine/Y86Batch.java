@@ -0,0 +1,193 @@
+package virtual.machine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Scanner;
+import virtual.machine.core.Pair;
+import virtual.machine.core.Strings;
+import virtual.machine.execution.Compiler;
+import virtual.machine.execution.CompilerException;
+import virtual.machine.execution.Disassembler;
+import virtual.machine.internal.Breakpoints;
+import virtual.machine.internal.Environment;
+import virtual.machine.internal.Memory;
+import virtual.machine.internal.Registers;
+
+/**
+ * Runs a program without the editor. Assembles a .ys file, or loads a .yo
+ * file as it is, runs it to completion with getc/getq/gets reading from
+ * standard input and outc/outq/outs writing to standard output, then prints
+ * the final state of the machine.
+ *
+ * Usage: Y86Batch [--memory bytes] [--max-instructions n] [--max-time ms] file.ys|file.yo
+ *        Y86Batch --disassemble file.ys|file.yo
+ *
+ * A run that goes over either limit stops with status LIM. The machine has
+ * 4096 bytes of memory unless --memory asks for more, in decimal or 0x hex.
+ * With --disassemble the program is listed instead of run.
+ *
+ * Nothing in here touches JavaFX, so starting it only costs the JVM itself.
+ *
+ * @author aniket
+ */
+public class Y86Batch {
+
+    public static void main(String[] args) {
+        if (args.length == 2 && args[0].equals("--disassemble")) {
+            try {
+                System.out.print(Disassembler.disassemble(bytes(new File(args[1])), 0));
+            } catch (IOException ex) {
+                System.err.println("Could not read " + args[1] + " : " + ex.getMessage());
+                System.exit(2);
+            } catch (CompilerException ex) {
+                System.err.println(args[1] + ":" + ex.getLine() + " : " + ex.getMessage());
+                System.exit(2);
+            }
+            return;
+        }
+        Options options = new Options();
+        if (!options.parse(args) || options.rest.size() != 1) {
+            System.err.println("Usage: Y86Batch [--memory bytes] [--max-instructions n] [--max-time ms] file.ys|file.yo");
+            System.err.println("       Y86Batch --disassemble file.ys|file.yo");
+            System.exit(2);
+        }
+        String file = options.rest.get(0);
+        Environment environ = options.machine();
+        try {
+            load(environ, new File(file));
+        } catch (IOException ex) {
+            System.err.println("Could not read " + file + " : " + ex.getMessage());
+            System.exit(2);
+        } catch (CompilerException ex) {
+            System.err.println(file + ":" + ex.getLine() + " : " + ex.getMessage());
+            System.exit(2);
+        }
+        Scanner in = new Scanner(System.in);
+        environ.input(() -> in);
+        environ.output(System.out::print);
+        try {
+            environ.execute(() -> {
+            }, new Breakpoints());
+        } catch (RuntimeException ex) {
+            System.out.flush();
+            System.err.println(file + " : " + ex);
+            environ.setStatus(3);
+        }
+        environ.shutdown();
+        System.out.flush();
+        print(environ, System.out);
+        System.exit(environ.status() == 1 ? 0 : 1);
+    }
+
+    /**
+     * The --memory, --max-instructions and --max-time options shared by the
+     * command line tools. Fields start out at the defaults and parse
+     * overwrites the ones given, anything that is not one of these options
+     * ends up in rest.
+     */
+    static final class Options {
+
+        long memory = Environment.DEFAULT_MEMORY;
+        long instructions = Long.MAX_VALUE;
+        long time = Long.MAX_VALUE;
+        final ArrayList<String> rest = new ArrayList<>();
+
+        /**
+         * Reads the options out of args. Returns false if one is malformed
+         * or asks for a memory size the machine cannot have.
+         */
+        boolean parse(String[] args) {
+            try {
+                for (int x = 0; x < args.length; x++) {
+                    switch (args[x]) {
+                        case "--memory":
+                            memory = Long.decode(args[++x]);
+                            break;
+                        case "--max-instructions":
+                            instructions = Long.parseLong(args[++x]);
+                            break;
+                        case "--max-time":
+                            time = Long.parseLong(args[++x]);
+                            break;
+                        default:
+                            rest.add(args[x]);
+                            break;
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                return false;
+            }
+            return memory > 0 && memory <= Memory.MAX_CAPACITY;
+        }
+
+        /**
+         * A new machine with the memory and budgets asked for.
+         */
+        Environment machine() {
+            Environment environ = new Environment(memory);
+            environ.setInstructionBudget(instructions);
+            environ.setTimeBudget(time);
+            return environ;
+        }
+    }
+
+    /**
+     * Places the program at address 0. An object file is mapped in as it
+     * is, anything else is assembled first.
+     */
+    public static void load(Environment environ, File file) throws IOException, CompilerException {
+        if (file.getName().endsWith(".yo")) {
+            environ.getMemory().map(file.toPath(), 0);
+            return;
+        }
+        environ.getMemory().load(bytes(file), 0);
+    }
+
+    /**
+     * The object code of the program, assembling it first unless it is
+     * already an object file.
+     */
+    public static byte[] bytes(File file) throws IOException, CompilerException {
+        byte[] read = Files.readAllBytes(file.toPath());
+        if (file.getName().endsWith(".yo")) {
+            return read;
+        }
+        return assemble(new String(read));
+    }
+
+    /**
+     * Assembles the source into the image it occupies from address 0.
+     */
+    public static byte[] assemble(String source) throws CompilerException {
+        ArrayList<Pair<String, ArrayList<Byte>>> interpret = Compiler.getInstance().compile(source);
+        int size = 0;
+        for (Pair<String, ArrayList<Byte>> p : interpret) {
+            size += p.getValue().size();
+        }
+        byte[] code = new byte[size];
+        int loc = 0;
+        for (Pair<String, ArrayList<Byte>> p : interpret) {
+            for (Byte b : p.getValue()) {
+                code[loc++] = b;
+            }
+        }
+        return code;
+    }
+
+    public static void print(Environment environ, PrintStream out) {
+        out.println();
+        Registers reg = environ.getRegister();
+        for (int x = 0; x < reg.size(); x++) {
+            long val = reg.getValueFromRegister(x);
+            out.println(String.format("%-5s %s %d", reg.getName(x), Strings.getHex(val, 16), val));
+        }
+        out.println("ZF=" + environ.isZero() + " SF=" + environ.isSign()
+                + " OF=" + environ.isOverflow() + " CF=" + environ.isCarry());
+        out.println("PC=" + Strings.getHex(environ.programCounter(), 4));
+        out.println("Status=" + environ.getStatus());
+        out.println("Instructions=" + environ.instructionCount());
+    }
+}
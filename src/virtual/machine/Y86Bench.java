@@ -0,0 +1,124 @@
+package virtual.machine;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import virtual.machine.internal.Breakpoints;
+import virtual.machine.internal.Environment;
+
+/**
+ * Measures how fast the machine runs a program and checks that the run loop
+ * does not allocate once it is warmed up. Runs the program a few times to
+ * warm up, then times several more runs on the same machine and reports the
+ * instructions per second and the bytes allocated per run. What a run
+ * allocates before and after the loop is measured with runs that stop
+ * before the first instruction and taken off, so only the loop is counted.
+ * Exits with 1 if that goes over the allowed amount.
+ *
+ * Usage: Y86Bench [--no-fusion] [--memory bytes] [file.ys|file.yo]
+ *
+ * Without a file it runs a built-in loop over arithmetic, memory and stack
+ * instructions. --no-fusion runs it without fusing instruction sequences,
+ * for comparison. --memory and the budgets work as they do for Y86Batch.
+ *
+ * @author aniket
+ */
+public class Y86Bench {
+
+    private static final String LOOP = "\tirmovq $0x300, %rsp\n"
+            + "\tirmovq $2000000, %rcx\n"
+            + "\tirmovq $1, %r8\n"
+            + "\tirmovq $0, %rax\n"
+            + "\tirmovq $0x200, %rdi\n"
+            + "loop:\n"
+            + "\taddq %rcx, %rax\n"
+            + "\trmmovq %rax, (%rdi)\n"
+            + "\tmrmovq (%rdi), %rbx\n"
+            + "\tpushq %rbx\n"
+            + "\tpopq %rdx\n"
+            + "\tsubq %r8, %rcx\n"
+            + "\tjne loop\n"
+            + "\thalt\n";
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    /**
+     * Bytes the run loop may allocate per run, on top of what an empty run
+     * allocates.
+     */
+    private static final long ALLOWED = 256;
+
+    public static void main(String[] args) throws Exception {
+        Y86Batch.Options options = new Y86Batch.Options();
+        ArrayList<String> files = options.rest;
+        boolean parsed = options.parse(args);
+        boolean fusion = !files.remove("--no-fusion");
+        if (!parsed || files.size() > 1) {
+            System.err.println("Usage: Y86Bench [--no-fusion] [--memory bytes] [file.ys|file.yo]");
+            System.exit(2);
+        }
+        Environment environ = options.machine();
+        environ.setFusion(fusion);
+        if (files.size() == 1) {
+            Y86Batch.load(environ, new File(files.get(0)));
+        } else {
+            environ.getMemory().load(Y86Batch.assemble(LOOP), 0);
+        }
+        Breakpoints breakpoints = new Breakpoints();
+        Runnable call = () -> {
+        };
+        for (int x = 0; x < WARMUP; x++) {
+            run(environ, call, breakpoints);
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+        long id = Thread.currentThread().getId();
+        long baseline = 0;
+        if (allocation != null) {
+            environ.setInstructionBudget(0);
+            for (int x = 0; x < WARMUP; x++) {
+                run(environ, call, breakpoints);
+            }
+            baseline = allocation.getThreadAllocatedBytes(id);
+            for (int x = 0; x < RUNS; x++) {
+                run(environ, call, breakpoints);
+            }
+            baseline = allocation.getThreadAllocatedBytes(id) - baseline;
+            environ.setInstructionBudget(options.instructions);
+        }
+        long instructions = 0;
+        long bytes = allocation == null ? 0 : allocation.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int x = 0; x < RUNS; x++) {
+            instructions += run(environ, call, breakpoints);
+        }
+        long time = System.nanoTime() - start;
+        bytes = allocation == null ? 0 : allocation.getThreadAllocatedBytes(id) - bytes;
+        environ.shutdown();
+        System.out.println("Status=" + environ.getStatus());
+        System.out.println(String.format("%d instructions in %.1f ms, %.1f million per second",
+                instructions, time / 1e6, instructions * 1e3 / time));
+        if (allocation == null) {
+            System.out.println("Allocation not measured on this JVM");
+            return;
+        }
+        long loop = Math.max(bytes - baseline, 0) / RUNS;
+        System.out.println(String.format("%d bytes allocated, %d in empty runs, %d per run in the loop",
+                bytes, baseline, loop));
+        if (loop > ALLOWED) {
+            System.out.println("FAIL: run loop allocates more than " + ALLOWED + " bytes per run");
+            System.exit(1);
+        }
+    }
+
+    private static long run(Environment environ, Runnable call, Breakpoints breakpoints) {
+        environ.getRegister().reset();
+        environ.getFlags().set(0);
+        environ.reset();
+        environ.execute(call, breakpoints);
+        return environ.instructionCount();
+    }
+}
@@ -0,0 +1,178 @@
+package virtual.machine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import virtual.machine.execution.Compiler;
+import virtual.machine.execution.CompilerException;
+import virtual.machine.internal.Breakpoints;
+import virtual.machine.internal.Environment;
+
+/**
+ * Runs every .ys program in a directory across all cores and reports which
+ * of them behaved as expected. Next to each program foo.ys there may be a
+ * foo.out holding the output it should print and a foo.in holding what it
+ * reads. A program passes when it halts normally and, if there is a foo.out,
+ * its output matches.
+ *
+ * Usage: Y86Suite [--memory bytes] [--max-instructions n] [--max-time ms] directory [threads]
+ *
+ * Each program gets ten seconds unless told otherwise, so one that never
+ * halts fails with status LIM instead of holding up the rest.
+ *
+ * @author aniket
+ */
+public class Y86Suite {
+
+    private static final long DEFAULT_TIME = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        Y86Batch.Options options = new Y86Batch.Options();
+        options.time = DEFAULT_TIME;
+        ArrayList<String> rest = options.rest;
+        if (!options.parse(args) || rest.size() < 1 || rest.size() > 2) {
+            System.err.println("Usage: Y86Suite [--memory bytes] [--max-instructions n] [--max-time ms] directory [threads]");
+            System.exit(2);
+        }
+        File[] files = new File(rest.get(0)).listFiles((dir, name) -> name.endsWith(".ys"));
+        if (files == null) {
+            System.err.println(rest.get(0) + " is not a directory");
+            System.exit(2);
+        }
+        Arrays.sort(files);
+        int threads = rest.size() > 1 ? Integer.parseInt(rest.get(1)) : Runtime.getRuntime().availableProcessors();
+        Compiler.getInstance();
+        long start = System.nanoTime();
+        List<Result> results = run(files, threads, options.memory, options.instructions, options.time);
+        long wall = System.nanoTime() - start;
+        int passed = 0;
+        for (Result r : results) {
+            System.out.println(r);
+            if (r.passed) {
+                passed++;
+            }
+        }
+        System.out.println();
+        System.out.println(passed + "/" + results.size() + " passed in "
+                + String.format("%.1f ms", wall / 1e6) + " on " + threads + " threads");
+        System.exit(passed == results.size() ? 0 : 1);
+    }
+
+    public static List<Result> run(File[] files, int threads, long memory, long instructions, long millis) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayList<ForkJoinTask<Result>> tasks = new ArrayList<>();
+            for (File f : files) {
+                tasks.add(pool.submit(() -> run(f, memory, instructions, millis)));
+            }
+            ArrayList<Result> results = new ArrayList<>();
+            for (ForkJoinTask<Result> t : tasks) {
+                results.add(t.join());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Assembles and runs a single program on its own machine, stopping it
+     * once it goes over either budget.
+     */
+    public static Result run(File file, long memory, long instructions, long millis) {
+        long start = System.nanoTime();
+        Environment environ = new Environment(memory);
+        environ.setInstructionBudget(instructions);
+        environ.setTimeBudget(millis);
+        try {
+            Y86Batch.load(environ, file);
+            File in = sibling(file, ".in");
+            Scanner scan = new Scanner(in.exists() ? new String(Files.readAllBytes(in.toPath())) : "");
+            environ.input(() -> scan);
+            StringBuilder output = new StringBuilder();
+            environ.output(output::append);
+            environ.execute(() -> {
+            }, new Breakpoints());
+            long time = System.nanoTime() - start;
+            String message = environ.getStatus();
+            boolean passed = environ.status() == 1;
+            File out = sibling(file, ".out");
+            if (passed && out.exists()) {
+                String expected = new String(Files.readAllBytes(out.toPath()));
+                passed = normalize(expected).equals(normalize(output.toString()));
+                if (!passed) {
+                    message += ", output differs";
+                }
+            }
+            return new Result(file.getName(), passed, message, time, environ.instructionCount());
+        } catch (IOException ex) {
+            return new Result(file.getName(), false, ex.toString(), System.nanoTime() - start, 0);
+        } catch (CompilerException ex) {
+            return new Result(file.getName(), false, "line " + ex.getLine() + " : " + ex.getMessage(),
+                    System.nanoTime() - start, 0);
+        } catch (RuntimeException ex) {
+            return new Result(file.getName(), false, ex.toString(), System.nanoTime() - start,
+                    environ.instructionCount());
+        } finally {
+            environ.shutdown();
+        }
+    }
+
+    private static File sibling(File file, String extension) {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.')) + extension);
+    }
+
+    private static String normalize(String s) {
+        return s.replace("\r\n", "\n").replaceAll("\\s+$", "");
+    }
+
+    public static class Result {
+
+        private final String name;
+        private final boolean passed;
+        private final String message;
+        private final long time;
+        private final long instructions;
+
+        private Result(String name, boolean passed, String message, long time, long instructions) {
+            this.name = name;
+            this.passed = passed;
+            this.message = message;
+            this.time = time;
+            this.instructions = instructions;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isPassed() {
+            return passed;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getInstructions() {
+            return instructions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s  %-30s %10.2f ms %12d instructions  %s",
+                    passed ? "PASS" : "FAIL", name, time / 1e6, instructions, message);
+        }
+    }
+}
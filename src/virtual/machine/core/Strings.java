@@ -1,31 +1,29 @@
 package virtual.machine.core;
 
 /**
+ * Hex and decimal formatting for listings, registers and memory. Digits are
+ * looked up a nibble at a time and written right to left into a buffer
+ * owned by the call, so nothing is shared between threads and no
+ * intermediate strings are made.
  *
  * @author aniket
  */
 public class Strings {
 
-    private static final StringBuilder BUILD = new StringBuilder();
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
 
     public static String getHex(long a) {
-        return getHexBuild().append(Long.toHexString(a).toUpperCase()).toString();
+        return getHex(a, 0);
     }
 
     public static String getHex(int a) {
-        return getHexBuild().append(Integer.toHexString(a).toUpperCase()).toString();
+        return getHex(a, 0);
     }
 
     public static String getHexMinusPrefix(int a, int l) {
-        String valA = Integer.toHexString(a).toUpperCase();
-        int offset = 0;
-        StringBuilder newBuild = newBuild();
-        while (valA.length() + offset < l) {
-            newBuild.append("0");
-            offset++;
-        }
-        newBuild.append(valA);
-        return newBuild.toString();
+        char[] into = new char[Math.max(l, 8)];
+        int start = hex(a & 0xFFFFFFFFL, l, into, into.length);
+        return new String(into, start, into.length - start);
     }
 
     public static String getDecimal(long a) {
@@ -37,67 +35,78 @@ public class Strings {
     }
 
     public static String getDecimal(int a, int l) {
-        StringBuilder newBuild = newBuild();
-        if (a < 0) {
-            a = -a;
-            newBuild.append("-");
-        }
-        String valA = Integer.toString(a).toUpperCase();
-        int offset = 0;
-        while (valA.length() + offset < l) {
-            newBuild.append("0");
-            offset++;
-        }
-        newBuild.append(valA);
-        return newBuild.toString();
+        return getDecimal((long) a, l);
     }
 
     public static String getHex(int a, int l) {
-        String valA = Integer.toHexString(a).toUpperCase();
-        int offset = 0;
-        StringBuilder newBuild = getHexBuild();
-        while (valA.length() + offset < l) {
-            newBuild.append("0");
-            offset++;
-        }
-        newBuild.append(valA);
-        return newBuild.toString();
+        return prefixed(a & 0xFFFFFFFFL, l);
     }
 
+    /**
+     * The value in decimal with at least l digits, zero padded after the
+     * sign.
+     */
     public static String getDecimal(long a, int l) {
-        StringBuilder newBuild = newBuild();
-        if (a < 0) {
-            a = -a;
-            newBuild.append("-");
+        char[] into = new char[Math.max(l, 19) + 1];
+        int pos = into.length;
+        long rest = a;
+        do {
+            long next = rest / 10;
+            into[--pos] = DIGITS[(int) Math.abs(rest - next * 10)];
+            rest = next;
+        } while (rest != 0);
+        while (into.length - pos < l) {
+            into[--pos] = '0';
         }
-        String valA = Long.toString(a).toUpperCase();
-        int offset = 0;
-        while (valA.length() + offset < l) {
-            newBuild.append("0");
-            offset++;
+        if (a < 0) {
+            into[--pos] = '-';
         }
-        newBuild.append(valA);
-        return newBuild.toString();
+        return new String(into, pos, into.length - pos);
     }
 
     public static String getHex(long a, int l) {
-        String valA = Long.toHexString(a).toUpperCase();
-        int offset = 0;
-        StringBuilder newBuild = getHexBuild();
-        while (valA.length() + offset < l) {
-            newBuild.append("0");
-            offset++;
-        }
-        newBuild.append(valA);
-        return newBuild.toString();
+        return prefixed(a, l);
+    }
+
+    /**
+     * Appends 0x and the value in hex with at least l digits.
+     */
+    public static StringBuilder appendHex(StringBuilder sb, long a, int l) {
+        char[] into = new char[Math.max(l, 16)];
+        int start = hex(a, l, into, into.length);
+        return sb.append("0x").append(into, start, into.length - start);
     }
 
-    public synchronized static StringBuilder getHexBuild() {
-        return newBuild().append("0x");
+    /**
+     * Appends the value in hex with at least l digits and no prefix.
+     */
+    public static StringBuilder appendHexMinusPrefix(StringBuilder sb, long a, int l) {
+        char[] into = new char[Math.max(l, 16)];
+        int start = hex(a, l, into, into.length);
+        return sb.append(into, start, into.length - start);
     }
 
-    public static StringBuilder newBuild() {
-        BUILD.delete(0, BUILD.length());
-        return BUILD;
+    private static String prefixed(long a, int l) {
+        char[] into = new char[Math.max(l, 16) + 2];
+        int start = hex(a, l, into, into.length);
+        into[--start] = 'x';
+        into[--start] = '0';
+        return new String(into, start, into.length - start);
+    }
+
+    /**
+     * Writes the hex digits of a so that they end right before end, with
+     * zeros in front up to l digits, and returns where they start.
+     */
+    private static int hex(long a, int l, char[] into, int end) {
+        int pos = end;
+        do {
+            into[--pos] = DIGITS[(int) a & 0xF];
+            a >>>= 4;
+        } while (a != 0);
+        while (end - pos < l) {
+            into[--pos] = '0';
+        }
+        return pos;
     }
 }
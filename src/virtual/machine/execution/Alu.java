@@ -0,0 +1,167 @@
+package virtual.machine.execution;
+
+/**
+ *
+ * @author aniket
+ */
+public final class Alu {
+
+    public static final int ZERO = 1;
+    public static final int SIGN = 2;
+    public static final int OVERFLOW = 4;
+    public static final int CARRY = 8;
+    public static final int ALL = ZERO | SIGN | OVERFLOW | CARRY;
+
+    private Alu() {
+    }
+
+    public static long compute(byte op, long a, long b) {
+        switch (op) {
+            case 0x60:
+                return b + a;
+            case 0x61:
+                return b - a;
+            case 0x62:
+                return b & a;
+            case 0x63:
+                return b ^ a;
+            case 0x64:
+                return b * a;
+            case 0x65:
+                return a == 0 ? 0 : b / a;
+            case 0x66:
+                return a == 0 ? 0 : b % a;
+            case 0x67:
+                return b >> a;
+            case 0x68:
+                return b >>> a;
+            case 0x69:
+                return b << a;
+            case 0x6A:
+                return b | a;
+            case (byte) 0xC0:
+                return ~b;
+            case (byte) 0xC1:
+                return -b;
+            case (byte) 0xC2:
+                return b + 1;
+            case (byte) 0xC3:
+                return b - 1;
+            case (byte) 0xC4:
+                return ((b >> 63) | ((~b + 1) >> 63)) + 1;
+            default:
+                return 0;
+        }
+    }
+
+    public static int affected(byte op) {
+        return (op & 0xF0) == 0xC0 ? ZERO | SIGN | OVERFLOW : ALL;
+    }
+
+    public static int flags(byte op, long a, long b, long result) {
+        int flags = 0;
+        if (result == 0) {
+            flags |= ZERO;
+        }
+        if (result < 0) {
+            flags |= SIGN;
+        }
+        long asign = a >>> 63;
+        long bsign = b >>> 63;
+        long lsign = result >>> 63;
+        long high;
+        switch (op) {
+            case 0x60:
+                if (asign == bsign && asign != lsign) {
+                    flags |= OVERFLOW;
+                }
+                if (Long.compareUnsigned(result, a) < 0 || Long.compareUnsigned(result, b) < 0) {
+                    flags |= CARRY;
+                }
+                break;
+            case 0x61:
+                if (asign == lsign && asign != bsign) {
+                    flags |= OVERFLOW;
+                }
+                if (Long.compareUnsigned(result, a) > 0 || Long.compareUnsigned(result, b) > 0) {
+                    flags |= CARRY;
+                }
+                break;
+            case 0x64:
+                high = multiplyHigh(b, a);
+                if (high < 0 || (high == 0 && result >= 0 && result != Long.MAX_VALUE)) {
+                    flags |= OVERFLOW;
+                }
+                if (high < 0 || (high == 0 && result != -1)) {
+                    flags |= CARRY;
+                }
+                break;
+            case 0x65:
+                if (b == 0x80000000 && a == -1) {
+                    flags |= OVERFLOW;
+                }
+                break;
+            case (byte) 0xC2:
+                if (result == Long.MIN_VALUE) {
+                    flags |= OVERFLOW;
+                }
+                break;
+            case (byte) 0xC3:
+                if (result == Long.MAX_VALUE) {
+                    flags |= OVERFLOW;
+                }
+                break;
+        }
+        return flags;
+    }
+
+    /**
+     * Upper 64 bits of the full 128-bit signed product, in place of
+     * Math.multiplyHigh which is not available on Java 8.
+     */
+    static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    public static boolean condition(int fn, int flags) {
+        boolean zero = (flags & ZERO) != 0;
+        boolean sign = (flags & SIGN) != 0;
+        boolean overflow = (flags & OVERFLOW) != 0;
+        boolean carry = (flags & CARRY) != 0;
+        switch (fn) {
+            case 0x0:
+                return true;
+            case 0x1:
+                return zero || (overflow != sign);
+            case 0x2:
+                return overflow != sign;
+            case 0x3:
+                return zero;
+            case 0x4:
+                return !zero;
+            case 0x5:
+                return sign == overflow;
+            case 0x6:
+                return sign == overflow && !zero;
+            case 0x7:
+                return carry;
+            case 0x8:
+                return !carry;
+            case 0x9:
+                return carry || zero;
+            case 0xA:
+                return !(carry || zero);
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package virtual.machine.execution;
+
+/**
+ * A straight run of instructions ending at a jump, call or ret, translated
+ * once into operations with their operands already bound. One operation may
+ * stand for several fused instructions.
+ *
+ * @author aniket
+ */
+public class Block {
+
+    @FunctionalInterface
+    interface Op {
+
+        /**
+         * Returns false when execution has to leave the block after this
+         * operation.
+         */
+        boolean run();
+    }
+
+    private final int start;
+    private final int generation;
+    private final long[] breakpoints;
+    private final Op[] ops;
+    private final int[] next;
+    private final int[] retired;
+    private final int written;
+
+    Block(int start, int generation, long[] breakpoints, Op[] ops, int[] next, int[] retired, int written) {
+        this.start = start;
+        this.generation = generation;
+        this.breakpoints = breakpoints;
+        this.ops = ops;
+        this.next = next;
+        this.retired = retired;
+        this.written = written;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Number of instructions in the block.
+     */
+    public int size() {
+        return retired[retired.length - 1];
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * The breakpoint table the block was translated against. Blocks built
+     * against an older table are thrown away, they could run past a new
+     * breakpoint.
+     */
+    long[] getBreakpoints() {
+        return breakpoints;
+    }
+
+    Op[] getOps() {
+        return ops;
+    }
+
+    int getNext(int index) {
+        return next[index];
+    }
+
+    /**
+     * Number of instructions done once the operation at index has run. A
+     * fused operation counts every instruction it stands for.
+     */
+    int getRetired(int index) {
+        return retired[index];
+    }
+
+    int getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,443 @@
+package virtual.machine.execution;
+
+import java.util.ArrayList;
+import virtual.machine.internal.Breakpoints;
+import virtual.machine.internal.Environment;
+import virtual.machine.internal.InstructionCache;
+import virtual.machine.internal.Memory;
+import virtual.machine.internal.Registers;
+
+/**
+ * Second execution tier. Counts how often each address is reached while
+ * interpreting and, once an address gets hot, translates the basic block
+ * starting there so that later visits run the whole block at once. Blocks
+ * work on a private copy of the registers, writing it back when the block is
+ * left.
+ *
+ * Breakpoints, halt, brk, input/output and anything that cannot be decoded
+ * are never translated, so those always go through the interpreter.
+ *
+ * While translating, the common loop sequences irmovq then OPq, OPq then
+ * jXX, and rrmovq then OPq then jXX are fused into one operation each. They
+ * leave the same registers and condition codes behind as running the
+ * instructions one by one. A block ends before the first instruction with a
+ * breakpoint on it, so a fused sequence never spans a breakpoint.
+ *
+ * @author aniket
+ */
+public class BlockCompiler {
+
+    private static final int THRESHOLD = 50;
+    private static final int MAX_INSTRUCTIONS = 64;
+    private static final int RSP = Registers.RSP;
+
+    private final Environment environ;
+    private final Memory memory;
+    private final InstructionCache cache;
+    private final int capacity;
+    private final Block[][] blocks;
+    private final int[][] counts;
+    private final ConditionCodes codes;
+
+    private final long[] regs = new long[15];
+    private boolean jumped;
+    private long target;
+    private int generation;
+    private int executed;
+    private boolean fusion = true;
+
+    public BlockCompiler(Environment e, Memory m) {
+        environ = e;
+        memory = m;
+        cache = m.getInstructionCache();
+        capacity = cache.capacity();
+        blocks = new Block[(int) (((long) capacity + Memory.PAGE_SIZE - 1) >>> Memory.PAGE_BITS)][];
+        counts = new int[blocks.length][];
+        codes = e.getFlags();
+    }
+
+    /**
+     * Returns the translated block starting at the given address, or null if
+     * the instruction there should be interpreted.
+     */
+    public Block lookup(int address, long[] breakpoints) {
+        if (address < 0 || address >= capacity) {
+            return null;
+        }
+        int page = address >>> Memory.PAGE_BITS;
+        int slot = address & (Memory.PAGE_SIZE - 1);
+        Block[] translated = blocks[page];
+        if (translated == null) {
+            translated = new Block[Memory.PAGE_SIZE];
+            blocks[page] = translated;
+            counts[page] = new int[Memory.PAGE_SIZE];
+        }
+        int[] visits = counts[page];
+        Block b = translated[slot];
+        if (b != null) {
+            if (b.getGeneration() == cache.generation() && b.getBreakpoints() == breakpoints) {
+                return b;
+            }
+            translated[slot] = null;
+            visits[slot] = 0;
+        }
+        if (++visits[slot] == THRESHOLD) {
+            translated[slot] = compile(address, breakpoints);
+            return translated[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Runs the block and returns the address of the next instruction.
+     */
+    public int execute(Block b) {
+        for (int x = 0; x < regs.length; x++) {
+            regs[x] = environ.getRegister().getValueFromRegister(x);
+        }
+        jumped = false;
+        generation = b.getGeneration();
+        Block.Op[] ops = b.getOps();
+        int x = 0;
+        while (ops[x].run() && x < ops.length - 1) {
+            x++;
+        }
+        executed = b.getRetired(x);
+        int written = b.getWritten();
+        for (int r = 0; r < regs.length; r++) {
+            if ((written & (1 << r)) != 0) {
+                environ.getRegister().setValueInRegister(r, regs[r]);
+            }
+        }
+        return jumped ? (int) target : b.getNext(x);
+    }
+
+    /**
+     * Number of instructions run by the last call to execute.
+     */
+    public int executed() {
+        return executed;
+    }
+
+    /**
+     * Turns fusing of instruction sequences on or off for blocks translated
+     * from now on.
+     */
+    public void setFusion(boolean v) {
+        fusion = v;
+    }
+
+    private Block compile(int start, long[] breakpoints) {
+        ArrayList<Decoded> decoded = new ArrayList<>();
+        int written = 0;
+        int address = start;
+        while (decoded.size() < MAX_INSTRUCTIONS && address >= 0 && address < capacity
+                && !Breakpoints.contains(breakpoints, address)) {
+            int slot = cache.lookup(address);
+            byte op = cache.opcode(slot);
+            int rA = cache.regA(slot);
+            int rB = cache.regB(slot);
+            long valC = cache.valC(slot);
+            int end = address + cache.length(slot);
+            Block.Op o = translate(op, rA, rB, valC, end);
+            if (o == null) {
+                break;
+            }
+            decoded.add(new Decoded(address, op, rA, rB, valC, end, o));
+            written |= writes(op, rA, rB);
+            int kind = (op >>> 4) & 0xF;
+            if (kind == 0x7 || kind == 0x8 || kind == 0x9) {
+                break;
+            }
+            address = end;
+        }
+        if (decoded.isEmpty()) {
+            return null;
+        }
+        ArrayList<Block.Op> ops = new ArrayList<>();
+        ArrayList<Integer> next = new ArrayList<>();
+        ArrayList<Integer> retired = new ArrayList<>();
+        int x = 0;
+        while (x < decoded.size()) {
+            int length = 1;
+            Block.Op o = null;
+            if (fusion) {
+                if (x + 2 < decoded.size()) {
+                    o = fuse(decoded.get(x), decoded.get(x + 1), decoded.get(x + 2));
+                    length = 3;
+                }
+                if (o == null && x + 1 < decoded.size()) {
+                    o = fuse(decoded.get(x), decoded.get(x + 1));
+                    length = 2;
+                }
+            }
+            if (o == null) {
+                o = decoded.get(x).op;
+                length = 1;
+            }
+            x += length;
+            ops.add(o);
+            next.add(decoded.get(x - 1).end);
+            retired.add(x);
+        }
+        int[] ends = new int[next.size()];
+        int[] counts = new int[retired.size()];
+        for (int y = 0; y < ends.length; y++) {
+            ends[y] = next.get(y);
+            counts[y] = retired.get(y);
+        }
+        return new Block(start, cache.generation(), breakpoints, ops.toArray(new Block.Op[ops.size()]), ends,
+                counts, written);
+    }
+
+    private Block.Op fuse(Decoded first, Decoded second) {
+        if (first.opcode == 0x30 && fusable(second.opcode)) {
+            int rB = first.rB;
+            long valC = first.valC;
+            byte op = second.opcode;
+            int rA2 = second.rA;
+            int rB2 = second.rB;
+            return () -> {
+                regs[rB] = valC;
+                alu(op, rA2, rB2);
+                return true;
+            };
+        }
+        if (fusable(first.opcode) && (second.opcode & 0xF0) == 0x70) {
+            byte op = first.opcode;
+            int rA = first.rA;
+            int rB = first.rB;
+            int fn = second.opcode & 0xF;
+            long dest = second.valC;
+            return () -> {
+                alu(op, rA, rB);
+                if (Alu.condition(fn, codes.get())) {
+                    jumped = true;
+                    target = dest;
+                }
+                return false;
+            };
+        }
+        return null;
+    }
+
+    private Block.Op fuse(Decoded first, Decoded second, Decoded third) {
+        if (first.opcode != 0x20 || !fusable(second.opcode) || (third.opcode & 0xF0) != 0x70) {
+            return null;
+        }
+        int rA = first.rA;
+        int rB = first.rB;
+        byte op = second.opcode;
+        int rA2 = second.rA;
+        int rB2 = second.rB;
+        int fn = third.opcode & 0xF;
+        long dest = third.valC;
+        return () -> {
+            regs[rB] = regs[rA];
+            alu(op, rA2, rB2);
+            if (Alu.condition(fn, codes.get())) {
+                jumped = true;
+                target = dest;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Whether the instruction is an OPq that cannot fail. divq and modq can,
+     * so they are left alone.
+     */
+    private static boolean fusable(byte op) {
+        return (op & 0xF0) == 0x60 && op != 0x65 && op != 0x66;
+    }
+
+    private static int writes(byte op, int rA, int rB) {
+        switch ((op >>> 4) & 0xF) {
+            case 0x2:
+            case 0x3:
+            case 0x5:
+            case 0x6:
+                return 1 << rB;
+            case 0x8:
+            case 0x9:
+            case 0xA:
+                return 1 << RSP;
+            case 0xB:
+                return 1 << rA | 1 << RSP;
+            case 0xC:
+                return 1 << rA;
+            default:
+                return 0;
+        }
+    }
+
+    private Block.Op translate(byte op, int rA, int rB, long valC, int end) {
+        Isa.Entry entry = Isa.get(op);
+        if (entry == null || entry.isCustom()) {
+            return null;
+        }
+        int fn = op & 0xF;
+        switch ((op >>> 4) & 0xF) {
+            case 0x1:
+                return () -> true;
+            case 0x2:
+                if (rA > 14 || rB > 14) {
+                    return null;
+                }
+                if (fn == 0) {
+                    return () -> {
+                        regs[rB] = regs[rA];
+                        return true;
+                    };
+                }
+                return () -> {
+                    if (Alu.condition(fn, codes.get())) {
+                        regs[rB] = regs[rA];
+                    }
+                    return true;
+                };
+            case 0x3:
+                if (rB > 14) {
+                    return null;
+                }
+                return () -> {
+                    regs[rB] = valC;
+                    return true;
+                };
+            case 0x4:
+                if (rA > 14 || rB > 14) {
+                    return null;
+                }
+                return () -> {
+                    memory.writeLong(regs[rB] + valC, regs[rA]);
+                    return stillValid();
+                };
+            case 0x5:
+                if (rA > 14 || rB > 14) {
+                    return null;
+                }
+                return () -> {
+                    regs[rB] = memory.readLong(regs[rA] + valC);
+                    return true;
+                };
+            case 0x6:
+                if (rA > 14 || rB > 14) {
+                    return null;
+                }
+                if (op == 0x65 || op == 0x66) {
+                    return () -> {
+                        if (regs[rA] == 0) {
+                            environ.setStatus(3);
+                        }
+                        alu(op, rA, rB);
+                        return environ.isRunning();
+                    };
+                }
+                return () -> {
+                    alu(op, rA, rB);
+                    return true;
+                };
+            case 0x7:
+                return () -> {
+                    if (Alu.condition(fn, codes.get())) {
+                        jumped = true;
+                        target = valC;
+                    }
+                    return false;
+                };
+            case 0x8:
+                return () -> {
+                    if (push(end)) {
+                        jumped = true;
+                        target = valC;
+                    } else {
+                        environ.setStatus(3);
+                    }
+                    return false;
+                };
+            case 0x9:
+                return () -> {
+                    long rsp = regs[RSP];
+                    regs[RSP] = rsp + 8;
+                    jumped = true;
+                    target = memory.readLong(rsp);
+                    return false;
+                };
+            case 0xA:
+                if (rA > 14) {
+                    return null;
+                }
+                return () -> {
+                    if (!push(regs[rA])) {
+                        environ.setStatus(3);
+                        return false;
+                    }
+                    return stillValid();
+                };
+            case 0xB:
+                if (rA > 14) {
+                    return null;
+                }
+                return () -> {
+                    regs[rA] = memory.readLong(regs[RSP]);
+                    regs[RSP] = regs[RSP] + 8;
+                    return true;
+                };
+            case 0xC:
+                if (rA > 14) {
+                    return null;
+                }
+                return () -> {
+                    long val = regs[rA];
+                    long result = Alu.compute(op, 0, val);
+                    regs[rA] = result;
+                    codes.record(op, 0, val, result);
+                    return true;
+                };
+            default:
+                return null;
+        }
+    }
+
+    private void alu(byte op, int rA, int rB) {
+        long a = regs[rA];
+        long b = regs[rB];
+        long result = Alu.compute(op, a, b);
+        regs[rB] = result;
+        codes.record(op, a, b, result);
+    }
+
+    private boolean push(long value) {
+        if (regs[RSP] < 8) {
+            return false;
+        }
+        regs[RSP] = regs[RSP] - 8;
+        memory.writeLong(regs[RSP], value);
+        return true;
+    }
+
+    private boolean stillValid() {
+        return environ.isRunning() && cache.generation() == generation;
+    }
+
+    private static class Decoded {
+
+        private final int address;
+        private final byte opcode;
+        private final int rA;
+        private final int rB;
+        private final long valC;
+        private final int end;
+        private final Block.Op op;
+
+        private Decoded(int address, byte opcode, int rA, int rB, long valC, int end, Block.Op op) {
+            this.address = address;
+            this.opcode = opcode;
+            this.rA = rA;
+            this.rB = rB;
+            this.valC = valC;
+            this.end = end;
+            this.op = op;
+        }
+    }
+}
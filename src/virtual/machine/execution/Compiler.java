@@ -14,147 +14,25 @@ import virtual.machine.core.Pair;
  */
 public class Compiler {
 
-    private final HashMap<String, Byte> mappings = new HashMap<String, Byte>() {
-        {
-            put("halt", (byte) 0x00);
-            put("brk", (byte) 0x01);
-            put("nop", (byte) 0x10);
-            put("rrmovq", (byte) 0x20);
-            put("cmovle", (byte) 0x21);
-            put("cmovl", (byte) 0x22);
-            put("cmove", (byte) 0x23);
-            put("cmovne", (byte) 0x24);
-            put("cmovge", (byte) 0x25);
-            put("cmovg", (byte) 0x26);
-            put("cmovb", (byte) 0x27);
-            put("cmovnb", (byte) 0x28);
-            put("cmovbe", (byte) 0x29);
-            put("cmova", (byte) 0x2A);
-            put("irmovq", (byte) 0x30);
-            put("rmmovq", (byte) 0x40);
-            put("mrmovq", (byte) 0x50);
-            put("addq", (byte) 0x60);
-            put("subq", (byte) 0x61);
-            put("andq", (byte) 0x62);
-            put("xorq", (byte) 0x63);
-            put("imultq", (byte) 0x64);
-            put("divq", (byte) 0x65);
-            put("modq", (byte) 0x66);
-            put("sarq", (byte) 0x67);
-            put("shrq", (byte) 0x68);
-            put("salq", (byte) 0x69);
-            put("orq", (byte) 0x6A);
-            put("jmp", (byte) 0x70);
-            put("jle", (byte) 0x71);
-            put("jl", (byte) 0x72);
-            put("je", (byte) 0x73);
-            put("jne", (byte) 0x74);
-            put("jge", (byte) 0x75);
-            put("jg", (byte) 0x76);
-            put("jb", (byte) 0x77);
-            put("jnb", (byte) 0x78);
-            put("jbe", (byte) 0x79);
-            put("ja", (byte) 0x7A);
-            put("call", (byte) 0x80);
-            put("ret", (byte) 0x90);
-            put("pushq", (byte) 0xA0);
-            put("popq", (byte) 0xB0);
-            put("notq", (byte) 0xC0);
-            put("negq", (byte) 0xC1);
-            put("incq", (byte) 0xC2);
-            put("decq", (byte) 0xC3);
-            put("bangq", (byte) 0xC4);
-            put("getc", (byte) 0xD0);//read character into register
-            put("getq", (byte) 0xD1);//read up to 64 bit integer into register
-            put("gets", (byte) 0xD2);//read character array or string into memory
-            put("outc", (byte) 0xE0);//prints char from register
-            put("outq", (byte) 0xE1);//prints the 64 bit integer given
-            put("outs", (byte) 0xE2);//prints the string from this memory location, in register
-            put("%rax", (byte) 0x0);
-            put("%rcx", (byte) 0x1);
-            put("%rdx", (byte) 0x2);
-            put("%rbx", (byte) 0x3);
-            put("%rsp", (byte) 0x4);
-            put("%rbp", (byte) 0x5);
-            put("%rsi", (byte) 0x6);
-            put("%rdi", (byte) 0x7);
-            put("%r8", (byte) 0x8);
-            put("%r9", (byte) 0x9);
-            put("%r10", (byte) 0xA);
-            put("%r11", (byte) 0xB);
-            put("%r12", (byte) 0xC);
-            put("%r13", (byte) 0xD);
-            put("%r14", (byte) 0xE);
-            put("F", (byte) 0xF);
-        }
-    };
+    private final HashMap<String, Byte> mappings = new HashMap<>();
 
     private Compiler() {
+        for (int x = 0; x < Isa.registers(); x++) {
+            mappings.put(Isa.register(x), (byte) x);
+        }
+        mappings.put("F", (byte) 0xF);
     }
 
-    private final HashMap<String, Byte> byteMap = new HashMap<String, Byte>() {
-        {
-            put("halt", (byte) 1);
-            put("nop", (byte) 1);
-            put("brk", (byte) 1);
-            put("rrmovq", (byte) 2);
-            put("cmovle", (byte) 2);
-            put("cmovl", (byte) 2);
-            put("cmove", (byte) 2);
-            put("cmovne", (byte) 2);
-            put("cmovge", (byte) 2);
-            put("cmovg", (byte) 2);
-
-            put("cmovb", (byte) 2);
-            put("cmovnb", (byte) 2);
-            put("cmovbe", (byte) 2);
-            put("cmova", (byte) 2);
-
-            put("irmovq", (byte) 10);
-            put("rmmovq", (byte) 10);
-            put("mrmovq", (byte) 10);
-            put("addq", (byte) 2);
-            put("subq", (byte) 2);
-            put("andq", (byte) 2);
-            put("xorq", (byte) 2);
-            put("imultq", (byte) 2);
-            put("divq", (byte) 2);
-            put("modq", (byte) 2);
-            put("sarq", (byte) 2);
-            put("shrq", (byte) 2);
-            put("salq", (byte) 2);
-            put("orq", (byte) 2);
-            put("jmp", (byte) 9);
-            put("jle", (byte) 9);
-            put("jl", (byte) 9);
-            put("je", (byte) 9);
-            put("jne", (byte) 9);
-            put("jge", (byte) 9);
-            put("jg", (byte) 9);
-
-            put("jb", (byte) 9);
-            put("jnb", (byte) 9);
-            put("jbe", (byte) 9);
-            put("ja", (byte) 9);
-
-            put("call", (byte) 9);
-            put("ret", (byte) 1);
-            put("pushq", (byte) 2);
-            put("popq", (byte) 2);
-            put("notq", (byte) 2);
-            put("negq", (byte) 2);
-            put("incq", (byte) 2);
-            put("decq", (byte) 2);
-            put("bangq", (byte) 2);
-
-            put("getc", (byte) 2);
-            put("getq", (byte) 2);
-            put("gets", (byte) 2);
-            put("outc", (byte) 2);
-            put("outq", (byte) 2);
-            put("outs", (byte) 2);
+    /**
+     * Code for a mnemonic or a register, or null if the token is neither.
+     */
+    private Byte code(String token) {
+        Isa.Entry e = Isa.get(token);
+        if (e != null) {
+            return e.getOpcode();
         }
-    };
+        return mappings.get(token);
+    }
 
     private static Compiler compiler;
 
@@ -192,8 +70,8 @@ public class Compiler {
                 if (!val.isEmpty()) {
                     String[] spl = val.split("\\s+");
                     String token = spl[0];
-                    if (byteMap.containsKey(token)) {
-                        totalBytes += byteMap.get(token);
+                    if (Isa.get(token) != null) {
+                        totalBytes += Isa.get(token).getLength();
                     } else if (token.equals(".align")) {
                         if (spl.length == 1) {
                             throw new CompilerException(line + 1, "Missing argument for .align directive");
@@ -316,7 +194,16 @@ public class Compiler {
         String save = s;
         s = s.replaceAll(", ", ",");
         ArrayList<Byte> byt = new ArrayList<>();
-        if (s.startsWith("irmovq")) {
+        Scanner first = new Scanner(save);
+        if (!first.hasNext()) {
+            throw new CompilerException(line, "insufficient operands");
+        }
+        Isa.Entry entry = Isa.get(first.next());
+        if (entry == null) {
+            throw new CompilerException(line, "Unrecognized tokens on line : " + save);
+        }
+        Isa.Format format = entry.getFormat();
+        if (format == Isa.Format.IR) {
             s = s.replaceAll(",", " ");
             Scanner read = new Scanner(s);
             read.next();
@@ -344,7 +231,7 @@ public class Compiler {
             buffer.flip();
             byte[] array = buffer.array();
             reverse(array);
-            byt.add(mappings.get("irmovq"));
+            byt.add(entry.getOpcode());
             if (!read.hasNext()) {
                 throw new CompilerException(line, "insufficient operands");
             }
@@ -356,12 +243,12 @@ public class Compiler {
             for (byte b : array) {
                 byt.add(b);
             }
-        } else if (s.startsWith("rmmovq")) {
-            byt.add(mappings.get("rmmovq"));
-            if (!s.startsWith("rmmovq ")) {
+        } else if (format == Isa.Format.RM) {
+            byt.add(entry.getOpcode());
+            if (!s.startsWith(entry.getMnemonic() + " ")) {
                 throw new CompilerException(line, "invalid operands");
             }
-            s = s.substring(7).trim();
+            s = s.substring(entry.getMnemonic().length() + 1).trim();
             if (!s.contains(",")) {
                 throw new CompilerException(line, "invalid operands");
             }
@@ -403,12 +290,12 @@ public class Compiler {
             for (byte b : array) {
                 byt.add(b);
             }
-        } else if (s.startsWith("mrmovq")) {
-            byt.add(mappings.get("mrmovq"));
-            if (!s.startsWith("mrmovq ")) {
+        } else if (format == Isa.Format.MR) {
+            byt.add(entry.getOpcode());
+            if (!s.startsWith(entry.getMnemonic() + " ")) {
                 throw new CompilerException(line, "invalid operands");
             }
-            s = s.substring(7).trim();
+            s = s.substring(entry.getMnemonic().length() + 1).trim();
             if (!s.contains("(")) {
                 throw new CompilerException(line, "invalid operands");
             }
@@ -445,21 +332,13 @@ public class Compiler {
             for (byte b : array) {
                 byt.add(b);
             }
-        } else if (s.startsWith("popq") || s.startsWith("pushq")
-                || s.startsWith("notq") || s.startsWith("negq")
-                || s.startsWith("incq") || s.startsWith("decq")
-                || s.startsWith("bangq") || s.startsWith("getc")
-                || s.startsWith("getq") || s.startsWith("outc")
-                || s.startsWith("outq")) {
+        } else if (format == Isa.Format.R) {
             Scanner read = new Scanner(s);
             if (!read.hasNext()) {
                 throw new CompilerException(line, "insufficient operands");
             }
-            String next = read.next();
-            if (!mappings.containsKey(next)) {
-                throw new CompilerException(line, "invalid operands");
-            }
-            byt.add(mappings.get(next));
+            read.next();
+            byt.add(entry.getOpcode());
             if (!read.hasNext()) {
                 throw new CompilerException(line, "insufficient operands");
             }
@@ -480,8 +359,8 @@ public class Compiler {
             }
             boolean lessThan = false;
             for (String val : args) {
-                if (mappings.containsKey(val)) {
-                    byte b = mappings.get(val);
+                if (code(val) != null) {
+                    byte b = code(val);
                     if (val.startsWith("%")) {
                         if (lessThan) {
                             byt.set(byt.size() - 1, (byte) (byt.get(byt.size() - 1) << 4 | b));
@@ -510,11 +389,7 @@ public class Compiler {
                 throw new CompilerException(line, "Insufficient Operands on line : " + save);
             }
         }
-        Scanner finalCheck = new Scanner(save);
-        if (!finalCheck.hasNext()) {
-            throw new CompilerException(line, "insufficient operands");
-        }
-        if (byt.size() != byteMap.get(finalCheck.next())) {
+        if (byt.size() != entry.getLength()) {
             throw new CompilerException(line, "missing arguments");
         }
         return byt;
@@ -0,0 +1,50 @@
+package virtual.machine.execution;
+
+/**
+ * Condition codes kept as the last ALU operation, its operands and its
+ * result. The flags themselves are only worked out when a conditional move,
+ * a conditional jump or the view asks for them, since most results are
+ * overwritten before anything looks at their flags.
+ *
+ * @author aniket
+ */
+public final class ConditionCodes {
+
+    private int flags;
+    private boolean pending;
+    private byte op;
+    private long a, b, result;
+
+    public void record(byte op, long a, long b, long result) {
+        if (pending && Alu.affected(op) != Alu.ALL) {
+            get();
+        }
+        pending = true;
+        this.op = op;
+        this.a = a;
+        this.b = b;
+        this.result = result;
+    }
+
+    public int get() {
+        if (pending) {
+            flags = (flags & ~Alu.affected(op)) | Alu.flags(op, a, b, result);
+            pending = false;
+        }
+        return flags;
+    }
+
+    public void set(int f) {
+        flags = f;
+        pending = false;
+    }
+
+    public boolean is(int flag) {
+        return (get() & flag) != 0;
+    }
+
+    public void set(int flag, boolean value) {
+        int f = get();
+        set(value ? f | flag : f & ~flag);
+    }
+}
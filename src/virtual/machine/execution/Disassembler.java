@@ -0,0 +1,82 @@
+package virtual.machine.execution;
+
+import virtual.machine.core.Strings;
+
+/**
+ * Turns object code back into assembly using the operand formats in
+ * {@link Isa}. Bytes that do not start a known instruction are listed as
+ * .byte so the rest of the program still lines up.
+ *
+ * @author aniket
+ */
+public class Disassembler {
+
+    private Disassembler() {
+    }
+
+    /**
+     * Lists every instruction in the given bytes, one per line, with its
+     * address and encoding next to it. The first byte sits at address base.
+     */
+    public static String disassemble(byte[] code, int base) {
+        StringBuilder sb = new StringBuilder();
+        int x = 0;
+        while (x < code.length) {
+            Isa.Entry entry = Isa.get(code[x]);
+            int length = entry == null || x + entry.getLength() > code.length ? 1 : entry.getLength();
+            Strings.appendHex(sb, base + x, 4).append("\t");
+            int start = sb.length();
+            for (int y = x; y < x + length; y++) {
+                Strings.appendHexMinusPrefix(sb, code[y] & 0xFF, 2);
+            }
+            while (sb.length() - start < 20) {
+                sb.append(' ');
+            }
+            sb.append("\t|\t");
+            if (length == 1 && (entry == null || entry.getLength() != 1)) {
+                sb.append(".byte ").append(Strings.getHex(code[x] & 0xFF, 2));
+            } else {
+                sb.append(instruction(entry, code, x));
+            }
+            sb.append("\n");
+            x += length;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The assembly for the instruction starting at offset, which has to be
+     * long enough for the whole instruction.
+     */
+    public static String instruction(Isa.Entry entry, byte[] code, int offset) {
+        String name = entry.getMnemonic();
+        if (entry.getFormat() == Isa.Format.NONE) {
+            return name;
+        }
+        if (entry.getFormat() == Isa.Format.DEST) {
+            return name + " " + Strings.getHex(readLong(code, offset + 1));
+        }
+        String rA = Isa.register((code[offset + 1] >> 4) & 0xF);
+        String rB = Isa.register(code[offset + 1] & 0xF);
+        switch (entry.getFormat()) {
+            case R:
+                return name + " " + rA;
+            case RR:
+                return name + " " + rA + ", " + rB;
+            case IR:
+                return name + " $" + readLong(code, offset + 2) + ", " + rB;
+            case RM:
+                return name + " " + rA + ", " + readLong(code, offset + 2) + "(" + rB + ")";
+            default:
+                return name + " " + readLong(code, offset + 2) + "(" + rA + "), " + rB;
+        }
+    }
+
+    private static long readLong(byte[] code, int offset) {
+        long value = 0;
+        for (int x = 7; x >= 0; x--) {
+            value = (value << 8) | (code[offset + x] & 0xFF);
+        }
+        return value;
+    }
+}
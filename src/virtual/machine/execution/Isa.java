@@ -0,0 +1,283 @@
+package virtual.machine.execution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Every instruction the machine knows, indexed by opcode byte. The
+ * assembler, the interpreter, the disassembler and the syntax highlighting
+ * all read their instructions from here, so a new instruction only has to be
+ * defined once.
+ *
+ * @author aniket
+ */
+public final class Isa {
+
+    /**
+     * Operands an instruction takes, which also fixes its length.
+     */
+    public enum Format {
+        /**
+         * No operands, as in halt or ret.
+         */
+        NONE(1),
+        /**
+         * Two registers, as in addq %rA, %rB.
+         */
+        RR(2),
+        /**
+         * One register, as in pushq %rA.
+         */
+        R(2),
+        /**
+         * An immediate and a register, as in irmovq $V, %rB.
+         */
+        IR(10),
+        /**
+         * A register and a memory operand, as in rmmovq %rA, D(%rB).
+         */
+        RM(10),
+        /**
+         * A memory operand and a register, as in mrmovq D(%rA), %rB.
+         */
+        MR(10),
+        /**
+         * A destination address, as in jmp Dest.
+         */
+        DEST(9);
+
+        private final int length;
+
+        Format(int length) {
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Carries out one instruction and returns the address of the next one.
+     * The operands are already decoded, next is the address right after the
+     * instruction.
+     */
+    @FunctionalInterface
+    public interface Handler {
+
+        int execute(Interpreter ip, byte op, int rA, int rB, long valC, int next);
+    }
+
+    public static final class Entry {
+
+        private final byte opcode;
+        private final String mnemonic;
+        private final Format format;
+        private final Handler handler;
+        private final boolean custom;
+
+        private Entry(byte opcode, String mnemonic, Format format, Handler handler, boolean custom) {
+            this.opcode = opcode;
+            this.mnemonic = mnemonic;
+            this.format = format;
+            this.handler = handler;
+            this.custom = custom;
+        }
+
+        public byte getOpcode() {
+            return opcode;
+        }
+
+        public String getMnemonic() {
+            return mnemonic;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public int getLength() {
+            return format.getLength();
+        }
+
+        public Handler getHandler() {
+            return handler;
+        }
+
+        /**
+         * Whether the instruction was defined after startup. Those are only
+         * ever run through their handler.
+         */
+        public boolean isCustom() {
+            return custom;
+        }
+    }
+
+    private static final String[] REGISTERS = {"%rax", "%rcx", "%rdx", "%rbx", "%rsp", "%rbp",
+        "%rsi", "%rdi", "%r8", "%r9", "%r10", "%r11", "%r12", "%r13", "%r14"};
+
+    private static final Entry[] OPCODES = new Entry[256];
+    private static final HashMap<String, Entry> MNEMONICS = new HashMap<>();
+    private static boolean started;
+
+    static {
+        Handler advance = (ip, op, rA, rB, valC, next) -> next;
+        Handler move = (ip, op, rA, rB, valC, next) -> {
+            if (ip.condition(op & 0xF)) {
+                ip.register(rB, ip.register(rA));
+            }
+            return next;
+        };
+        Handler jump = (ip, op, rA, rB, valC, next) -> ip.condition(op & 0xF) ? (int) valC : next;
+        Handler operation = (ip, op, rA, rB, valC, next) -> {
+            ip.operation(op, rA, rB);
+            return next;
+        };
+        Handler single = (ip, op, rA, rB, valC, next) -> {
+            ip.singleOp(op, rA);
+            return next;
+        };
+        define(0x00, "halt", Format.NONE, (ip, op, rA, rB, valC, next) -> {
+            ip.getEnvironment().setStatus(1);
+            return next;
+        });
+        define(0x01, "brk", Format.NONE, advance);
+        define(0x10, "nop", Format.NONE, advance);
+        String[] conditions = {"", "le", "l", "e", "ne", "ge", "g", "b", "nb", "be", "a"};
+        for (int x = 0; x < conditions.length; x++) {
+            define(0x20 | x, x == 0 ? "rrmovq" : "cmov" + conditions[x], Format.RR, move);
+            define(0x70 | x, x == 0 ? "jmp" : "j" + conditions[x], Format.DEST, jump);
+        }
+        define(0x30, "irmovq", Format.IR, (ip, op, rA, rB, valC, next) -> {
+            ip.register(rB, valC);
+            return next;
+        });
+        define(0x40, "rmmovq", Format.RM, (ip, op, rA, rB, valC, next) -> {
+            ip.getMemory().writeLong(ip.register(rB) + valC, ip.register(rA));
+            return next;
+        });
+        define(0x50, "mrmovq", Format.MR, (ip, op, rA, rB, valC, next) -> {
+            ip.register(rB, ip.getMemory().readLong(ip.register(rA) + valC));
+            return next;
+        });
+        String[] operations = {"addq", "subq", "andq", "xorq", "imultq", "divq", "modq",
+            "sarq", "shrq", "salq", "orq"};
+        for (int x = 0; x < operations.length; x++) {
+            define(0x60 | x, operations[x], Format.RR, operation);
+        }
+        define(0x80, "call", Format.DEST, (ip, op, rA, rB, valC, next) -> {
+            if (ip.push(next)) {
+                return (int) valC;
+            }
+            ip.getEnvironment().setStatus(3);
+            return next;
+        });
+        define(0x90, "ret", Format.NONE, (ip, op, rA, rB, valC, next) -> ip.ret());
+        define(0xA0, "pushq", Format.R, (ip, op, rA, rB, valC, next) -> {
+            if (!ip.push(ip.register(rA))) {
+                ip.getEnvironment().setStatus(3);
+            }
+            return next;
+        });
+        define(0xB0, "popq", Format.R, (ip, op, rA, rB, valC, next) -> {
+            ip.pop(rA);
+            return next;
+        });
+        String[] singles = {"notq", "negq", "incq", "decq", "bangq"};
+        for (int x = 0; x < singles.length; x++) {
+            define(0xC0 | x, singles[x], Format.R, single);
+        }
+        define(0xD0, "getc", Format.R, (ip, op, rA, rB, valC, next) -> {
+            ip.readChar(rA);
+            return next;
+        });
+        define(0xD1, "getq", Format.R, (ip, op, rA, rB, valC, next) -> {
+            ip.readLong(rA);
+            return next;
+        });
+        define(0xD2, "gets", Format.RR, (ip, op, rA, rB, valC, next) -> {
+            ip.readString(rA, rB);
+            return next;
+        });
+        define(0xE0, "outc", Format.R, (ip, op, rA, rB, valC, next) -> {
+            ip.getEnvironment().write(Character.toString((char) ip.register(rA)));
+            return next;
+        });
+        define(0xE1, "outq", Format.R, (ip, op, rA, rB, valC, next) -> {
+            ip.getEnvironment().write(Long.toString(ip.register(rA)));
+            return next;
+        });
+        define(0xE2, "outs", Format.RR, (ip, op, rA, rB, valC, next) -> {
+            ip.writeString(rA, rB);
+            return next;
+        });
+        started = true;
+    }
+
+    private Isa() {
+    }
+
+    /**
+     * Adds an instruction, or replaces the one with the same opcode. Blocks
+     * that were already compiled keep the old behaviour, so instructions
+     * should be defined before a program is loaded.
+     */
+    public static synchronized void define(int opcode, String mnemonic, Format format, Handler handler) {
+        Entry old = OPCODES[opcode & 0xFF];
+        if (old != null) {
+            MNEMONICS.remove(old.getMnemonic());
+        }
+        Entry e = new Entry((byte) opcode, mnemonic, format, handler, started);
+        OPCODES[opcode & 0xFF] = e;
+        MNEMONICS.put(mnemonic, e);
+    }
+
+    /**
+     * The instruction with the given opcode, or null if there is none.
+     */
+    public static Entry get(byte opcode) {
+        return OPCODES[opcode & 0xFF];
+    }
+
+    public static synchronized Entry get(String mnemonic) {
+        return MNEMONICS.get(mnemonic);
+    }
+
+    /**
+     * Length in bytes of the instruction starting with the given opcode.
+     * Anything undefined counts as a single byte.
+     */
+    public static int length(byte opcode) {
+        Entry e = OPCODES[opcode & 0xFF];
+        return e == null ? 1 : e.getLength();
+    }
+
+    public static synchronized List<Entry> entries() {
+        ArrayList<Entry> list = new ArrayList<>();
+        for (Entry e : OPCODES) {
+            if (e != null) {
+                list.add(e);
+            }
+        }
+        return list;
+    }
+
+    public static synchronized List<String> mnemonics() {
+        ArrayList<String> list = new ArrayList<>();
+        for (Entry e : OPCODES) {
+            if (e != null) {
+                list.add(e.getMnemonic());
+            }
+        }
+        return list;
+    }
+
+    public static int registers() {
+        return REGISTERS.length;
+    }
+
+    public static String register(int r) {
+        return r >= 0 && r < REGISTERS.length ? REGISTERS[r] : "F";
+    }
+}
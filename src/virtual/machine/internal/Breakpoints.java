@@ -0,0 +1,73 @@
+package virtual.machine.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Breakpoint addresses kept as a bitmap with one bit per byte of memory.
+ * Every change builds a new bitmap and publishes it, so a running machine
+ * always works on a complete table, either the old one or the new one, and
+ * checking an address costs a single array load.
+ *
+ * @author aniket
+ */
+public class Breakpoints {
+
+    private static final long[] EMPTY = new long[0];
+
+    private volatile long[] bits = EMPTY;
+
+    /**
+     * The table as it is right now. It never changes after being returned.
+     */
+    public long[] snapshot() {
+        return bits;
+    }
+
+    public static boolean contains(long[] table, int address) {
+        int index = address >>> 6;
+        return index < table.length && (table[index] & (1L << address)) != 0;
+    }
+
+    public boolean contains(int address) {
+        return contains(bits, address);
+    }
+
+    public synchronized void add(int address) {
+        if (address < 0) {
+            return;
+        }
+        long[] next = Arrays.copyOf(bits, Math.max(bits.length, (address >>> 6) + 1));
+        next[address >>> 6] |= 1L << address;
+        bits = next;
+    }
+
+    public synchronized void remove(int address) {
+        if (contains(address)) {
+            long[] next = bits.clone();
+            next[address >>> 6] &= ~(1L << address);
+            bits = next;
+        }
+    }
+
+    /**
+     * Replaces every breakpoint with the given addresses at once.
+     */
+    public synchronized void set(Collection<Integer> addresses) {
+        int max = -1;
+        for (int a : addresses) {
+            max = Math.max(max, a);
+        }
+        long[] next = max < 0 ? EMPTY : new long[(max >>> 6) + 1];
+        for (int a : addresses) {
+            if (a >= 0) {
+                next[a >>> 6] |= 1L << a;
+            }
+        }
+        bits = next;
+    }
+
+    public synchronized void clear() {
+        bits = EMPTY;
+    }
+}
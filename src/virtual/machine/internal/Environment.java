@@ -1,18 +1,16 @@
 package virtual.machine.internal;
 
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import virtual.machine.execution.Alu;
+import virtual.machine.execution.Block;
+import virtual.machine.execution.BlockCompiler;
+import virtual.machine.execution.ConditionCodes;
 import virtual.machine.execution.Interpreter;
-import javafx.beans.property.BooleanProperty;
-import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.util.Callback;
 
 /**
  *
@@ -20,72 +18,49 @@ import javafx.util.Callback;
  */
 public class Environment {
 
-    public class Condition {
-
-        private final BooleanProperty state;
-        private final StringProperty name;
-        private final StringProperty stateValue;
-
-        public Condition(boolean a, String name) {
-            state = new SimpleBooleanProperty(a);
-            this.name = new SimpleStringProperty(name);
-            stateValue = new SimpleStringProperty("0");
-            state.addListener((observable, oldValue, newValue) -> {
-                stateValue.set(newValue ? "1" : "0");
-            });
-        }
-
-        public String getName() {
-            return name.get();
-        }
-
-        public void setName(String n) {
-            name.set(n);
-        }
-
-        public String getStateValue() {
-            return stateValue.get();
-        }
-
-        public void setStateValue(String n) {
-            stateValue.set(n);
-        }
-
-        public boolean getState() {
-            return state.get();
-        }
-
-        public void setState(boolean h) {
-            state.set(h);
-        }
-
-    }
-
-    private final IntegerProperty counter;
-    private Callback<String, Void> call;
-    private final IntegerProperty status;
-    private final ObservableList<Condition> conditions = FXCollections.observableArrayList(
-            new Condition(false, "Zero Flag"),
-            new Condition(false, "Overflow Flag"),
-            new Condition(false, "Sign Flag"),
-            new Condition(false, "Carry Flag"));
+    /**
+     * Memory size of a machine unless told otherwise.
+     */
+    public static final long DEFAULT_MEMORY = 4096;
+
+    private int counter;
+    private Consumer<String> call;
+    private Supplier<Scanner> reader;
+    private int status;
+    private long executed;
+    private long instructionBudget = Long.MAX_VALUE;
+    private long timeBudget = Long.MAX_VALUE;
+    private volatile boolean cancelled;
+    private final ConditionCodes flags = new ConditionCodes();
     private boolean overrideBreakpoint = false;
 
     private final Registers register;
     private final Memory memory;
+    private final BlockCompiler blocks;
+    private final Interpreter interpreter;
 
-    private Callback<Void, Void> breakCall;
+    private Runnable breakCall;
     private final ExecutorService single;
     private boolean input;
+    private volatile Snapshot snapshot;
+    private long[] changed = new long[64];
+    private int changes;
 
     public Environment() {
+        this(DEFAULT_MEMORY);
+    }
+
+    /**
+     * A machine with the given number of bytes of memory. Pages are only
+     * allocated once written, so a large size costs nothing up front.
+     */
+    public Environment(long memorySize) {
         register = new Registers();
-        memory = new Memory(this, 4096);
-        status = new SimpleIntegerProperty(0);
-        counter = new SimpleIntegerProperty(0);
-        Interpreter.environ = Environment.this;
-        Interpreter.memory = memory;
+        memory = new Memory(this, memorySize);
+        blocks = new BlockCompiler(this, memory);
+        interpreter = new Interpreter(this, memory);
         single = Executors.newSingleThreadExecutor();
+        publish();
     }
 
     public void waitForInput() {
@@ -94,7 +69,7 @@ public class Environment {
 
     public void receivedInput() {
         input = false;
-        if (c != null && b != null) {
+        if (c != null && b != null && !cancelled) {
             run(c, b);
         }
     }
@@ -103,11 +78,7 @@ public class Environment {
         single.shutdown();
     }
 
-    public ObservableList<Condition> getCodes() {
-        return conditions;
-    }
-
-    public void setBreakCall(Callback<Void, Void> v) {
+    public void setBreakCall(Runnable v) {
         breakCall = v;
     }
 
@@ -117,40 +88,129 @@ public class Environment {
     }
 
     public int programCounter() {
-        return counter.get();
+        return counter;
     }
 
-    public IntegerProperty counter() {
-        return counter;
+    public long instructionCount() {
+        return executed;
+    }
+
+    /**
+     * Most instructions a single run may execute before it is stopped with
+     * status LIM. Long.MAX_VALUE means no limit.
+     */
+    public void setInstructionBudget(long count) {
+        instructionBudget = count;
+    }
+
+    /**
+     * Longest a single run may take before it is stopped with status LIM.
+     * Long.MAX_VALUE means no limit.
+     */
+    public void setTimeBudget(long millis) {
+        timeBudget = millis >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : millis * 1_000_000;
+    }
+
+    /**
+     * Whether hot blocks fuse common instruction sequences. On by default,
+     * turning it off only affects blocks translated afterwards.
+     */
+    public void setFusion(boolean v) {
+        blocks.setFusion(v);
+    }
+
+    /**
+     * Runs the task on the execution thread once everything queued before it
+     * is done. Anything that changes the machine from another thread should
+     * go through here.
+     */
+    public void submit(Runnable task) {
+        single.execute(task);
+    }
+
+    /**
+     * Takes a snapshot of the machine and makes it the one snapshot returns.
+     * Only the thread running the machine may call this, which is the
+     * execution thread unless execute was called directly. Registers and
+     * memory start collecting writes for the next snapshot.
+     */
+    public void publish() {
+        long[] values = new long[register.size()];
+        for (int x = 0; x < values.length; x++) {
+            values[x] = register.getValueFromRegister(x);
+        }
+        changes = 0;
+        memory.sync((address) -> {
+            if (changes == changed.length) {
+                changed = Arrays.copyOf(changed, changes << 1);
+            }
+            changed[changes++] = address;
+        });
+        long[] words = Arrays.copyOf(changed, changes);
+        Arrays.sort(words);
+        snapshot = new Snapshot(counter, status, executed, flags.get(), values, register.changes(), words,
+                memory, memory.generation());
+    }
+
+    /**
+     * The last published snapshot. Safe to call from any thread.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Asks the machine to halt. A run notices within a few hundred blocks, an
+     * idle machine as soon as the execution thread gets to it. The callback
+     * runs on the execution thread once the machine has stopped.
+     */
+    public void cancel(Runnable call) {
+        cancelled = true;
+        single.execute(() -> {
+            if (cancelled) {
+                cancelled = false;
+                setStatus(1);
+            }
+            call.run();
+        });
     }
 
     public boolean isRunning() {
-        return status.get() == 0;
+        return status == 0;
     }
 
     public boolean hasError() {
         return !isRunning();
     }
 
-    public IntegerProperty status() {
+    public int status() {
         return status;
     }
 
     public String getStatus() {
-        switch (status.get()) {
+        return statusName(status);
+    }
+
+    /**
+     * The name a status code is shown with.
+     */
+    public static String statusName(int status) {
+        switch (status) {
             case 0:
                 return "AOK";
             case 1:
                 return "HLT";
             case 2:
                 return "ADR";
+            case 4:
+                return "LIM";
             default:
                 return "INS";
         }
     }
 
     public void setStatus(int i) {
-        status.set(i);
+        status = i;
     }
 
     public Registers getRegister() {
@@ -161,165 +221,192 @@ public class Environment {
         return memory;
     }
 
-    private Callback<Void, Void> c;
-    private Set<Integer> b;
+    private Runnable c;
+    private Breakpoints b;
 
-    public void run(Callback<Void, Void> call, Set<Integer> breakpoints) {
+    public void run(Runnable call, Breakpoints breakpoints) {
         c = call;
         b = breakpoints;
-        single.execute(() -> {
-            while (isRunning() && !input) {
-                nextInstruction(call, breakpoints, true);
+        single.execute(() -> execute(call, breakpoints));
+    }
+
+    /**
+     * Runs on the calling thread until the machine stops or waits for input.
+     * The program counter and instruction count live in locals while
+     * running and are written back, with the callback run, only every few
+     * hundred blocks, at a breakpoint and when the run ends. Cancellation,
+     * changes to the breakpoints and the time budget are only looked at then
+     * as well, so between those points the loop touches nothing another
+     * thread writes. The instruction budget is checked between blocks, so a
+     * run can go up to one block past it.
+     */
+    public void execute(Runnable call, Breakpoints breakpoints) {
+        long limit = executed + Math.min(instructionBudget, Long.MAX_VALUE - executed);
+        long deadline = System.nanoTime() + timeBudget;
+        int pc = counter;
+        long count = executed;
+        int checks = 0;
+        long[] table = breakpoints.snapshot();
+        try {
+            while (status == 0 && !input) {
+                if ((++checks & 0xFF) == 0) {
+                    counter = pc;
+                    executed = count;
+                    call.run();
+                    if (System.nanoTime() - deadline > 0) {
+                        status = 4;
+                        break;
+                    }
+                    if (cancelled) {
+                        cancelled = false;
+                        status = 1;
+                        break;
+                    }
+                    table = breakpoints.snapshot();
+                }
+                if (count >= limit) {
+                    status = 4;
+                    break;
+                }
+                Block block = blocks.lookup(pc, table);
+                if (block != null) {
+                    pc = blocks.execute(block);
+                    count += blocks.executed();
+                } else {
+                    if (Breakpoints.contains(table, pc)) {
+                        counter = pc;
+                        executed = count;
+                        if (breakpoint(pc, table)) {
+                            break;
+                        }
+                    }
+                    pc = interpreter.interpret(pc);
+                    count++;
+                }
             }
-        });
+        } finally {
+            counter = pc;
+            executed = count;
+        }
+        call.run();
     }
 
     public void reset() {
-        counter.set(0);
-        status.set(0);
+        counter = 0;
+        status = 0;
+        executed = 0;
+        cancelled = false;
         input = false;
         c = null;
         b = null;
     }
 
-    public synchronized void nextInstruction(Callback<Void, Void> call, Set<Integer> breakpoints, boolean b) {
+    public void nextInstruction(Runnable call, Breakpoints breakpoints, boolean b) {
         if (!input) {
-            Runnable r = () -> {
-                Interpreter ip = Interpreter.getInstance();
-                if (isRunning()) {
-                    if (!breakpoint(counter.get(), breakpoints)) {
-                        byte a = memory.getByte(counter.get());
-                        counter.set(counter.get() + 1);
-                        int end = ip.interpret(a, counter.get());
-                        if (hasJumped()) {
-                            jumped = false;
-                            counter.set((int) getJumpLocation());
-                        } else {
-                            counter.set(counter.get() + end);
-                        }
-                    }
-                }
-                call.call(null);
-            };
             if (b) {
-                r.run();
+                step(call, breakpoints.snapshot());
             } else {
-                single.execute(r);
+                single.execute(() -> step(call, breakpoints.snapshot()));
             }
         }
     }
 
-    private boolean breakpoint(int loc, Set<Integer> breakpoints) {
-        if (breakpoints.contains(loc)) {
+    private void step(Runnable call, long[] breakpoints) {
+        if (isRunning() && !breakpoint(counter, breakpoints)) {
+            counter = interpreter.interpret(counter);
+            executed++;
+        }
+        call.run();
+    }
+
+    private boolean breakpoint(int loc, long[] breakpoints) {
+        if (Breakpoints.contains(breakpoints, loc)) {
             if (overrideBreakpoint) {
                 overrideBreakpoint = false;
             } else {
                 setStatus(1);
-                breakCall.call(null);
+                breakCall.run();
                 return true;
             }
         }
         return false;
     }
 
-    private boolean jumped = false;
-    private long jumpLoc = 0L;
-
-    private boolean hasJumped() {
-        return jumped;
-    }
-
-    public void setJumped(boolean b) {
-        jumped = b;
-    }
-
-    private long getJumpLocation() {
-        return jumpLoc;
-    }
-
-    public void setJumpLocation(long a) {
-        jumpLoc = a;
-    }
-
-    private Condition get(int a) {
-        return conditions.get(a);
-    }
-
-    public BooleanProperty signProperty() {
-        return get(2).state;
-    }
-
-    public BooleanProperty overflowProperty() {
-        return get(1).state;
-    }
-
-    public BooleanProperty zeroProperty() {
-        return get(0).state;
-    }
-
-    public BooleanProperty carryProperty() {
-        return get(3).state;
+    public ConditionCodes getFlags() {
+        return flags;
     }
 
     public int isCarry() {
-        return get(3).getState() ? 1 : 0;
+        return carry() ? 1 : 0;
     }
 
     public void setCarry(boolean v) {
-        get(3).setState(v);
+        flags.set(Alu.CARRY, v);
     }
 
     public int isSign() {
-        return get(2).getState() ? 1 : 0;
+        return sign() ? 1 : 0;
     }
 
     public void setSign(boolean s) {
-        get(2).setState(s);
+        flags.set(Alu.SIGN, s);
     }
 
     public int isOverflow() {
-        return get(1).getState() ? 1 : 0;
+        return overflow() ? 1 : 0;
     }
 
     public void setOverflow(boolean o) {
-        get(1).setState(o);
+        flags.set(Alu.OVERFLOW, o);
     }
 
     public int isZero() {
-        return get(0).getState() ? 1 : 0;
+        return zero() ? 1 : 0;
     }
 
     public void setZero(boolean z) {
-        get(0).setState(z);
+        flags.set(Alu.ZERO, z);
     }
 
     public boolean overflow() {
-        return get(1).getState();
+        return flags.is(Alu.OVERFLOW);
     }
 
     public boolean zero() {
-        return get(0).getState();
+        return flags.is(Alu.ZERO);
     }
 
     public boolean sign() {
-        return get(2).getState();
+        return flags.is(Alu.SIGN);
     }
 
     public boolean carry() {
-        return get(3).getState();
+        return flags.is(Alu.CARRY);
     }
 
-    public void output(Callback<String, Void> call) {
+    public void output(Consumer<String> call) {
         this.call = call;
     }
 
+    public void input(Supplier<Scanner> in) {
+        reader = in;
+    }
+
+    public Scanner reader() {
+        if (reader == null) {
+            Scanner in = new Scanner(System.in);
+            reader = () -> in;
+        }
+        return reader.get();
+    }
+
     public boolean allowingInput() {
         return input;
     }
 
     public void write(String command) {
         if (call != null) {
-            call.call(command);
+            call.accept(command);
         }
     }
 
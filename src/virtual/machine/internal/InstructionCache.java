@@ -0,0 +1,183 @@
+package virtual.machine.internal;
+
+import java.util.Arrays;
+import virtual.machine.execution.Isa;
+
+/**
+ * Decoded form of the instruction at each address, filled in the first time
+ * the program counter reaches it. Writes to memory that touch the bytes of a
+ * decoded instruction throw the affected entries away.
+ *
+ * Entries are kept in pages that line up with the pages of memory and are
+ * only allocated once code on them runs. A slot returned by lookup refers to
+ * the page of the last lookup, so it has to be read before looking up the
+ * next address.
+ *
+ * @author aniket
+ */
+public class InstructionCache {
+
+    private static final int MAX_LENGTH = 10;
+    private static final int OFFSET = Memory.PAGE_SIZE - 1;
+
+    private final Memory memory;
+    private final int capacity;
+    private final Lines[] pages;
+    private final Lines scratch = new Lines(1);
+    private Lines current = scratch;
+    private int generation;
+    private int epoch;
+
+    InstructionCache(Memory m, int size) {
+        memory = m;
+        capacity = size;
+        pages = new Lines[(int) (((long) capacity + OFFSET) >>> Memory.PAGE_BITS)];
+    }
+
+    /**
+     * Highest address code can run from, plus one. The program counter is 32
+     * bits wide, so this is at most Integer.MAX_VALUE even when memory is
+     * larger.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the slot holding the decoded instruction at the given address.
+     * Addresses outside of memory are decoded into a scratch slot on every
+     * call instead of being cached.
+     */
+    public int lookup(int address) {
+        if (address >= 0 && address < capacity) {
+            Lines l = lines(address);
+            int slot = address & OFFSET;
+            current = l;
+            if (l.length[slot] == 0) {
+                decode(l, slot, address);
+                for (int x = address, end = Math.min(address + l.length[slot], capacity); x < end; x++) {
+                    lines(x).code[x & OFFSET] = true;
+                }
+            }
+            return slot;
+        }
+        current = scratch;
+        decode(scratch, 0, address);
+        return 0;
+    }
+
+    private Lines lines(int address) {
+        Lines l = pages[address >>> Memory.PAGE_BITS];
+        if (l == null) {
+            l = new Lines(Memory.PAGE_SIZE);
+            l.stamp = epoch;
+            pages[address >>> Memory.PAGE_BITS] = l;
+        } else if (l.stamp != epoch) {
+            Arrays.fill(l.code, false);
+            Arrays.fill(l.length, (byte) 0);
+            l.stamp = epoch;
+        }
+        return l;
+    }
+
+    private void decode(Lines l, int slot, int address) {
+        byte op = memory.getByte(address);
+        int len = Isa.length(op);
+        l.opcode[slot] = op;
+        l.length[slot] = (byte) len;
+        if (len > 1) {
+            l.regA[slot] = (byte) memory.readRegA(address + 1);
+            l.regB[slot] = (byte) memory.readRegB(address + 1);
+        } else {
+            l.regA[slot] = 0xF;
+            l.regB[slot] = 0xF;
+        }
+        if (len == 10) {
+            l.valC[slot] = memory.readLong(address + 2);
+        } else if (len == 9) {
+            l.valC[slot] = memory.readLong(address + 1);
+        } else {
+            l.valC[slot] = 0;
+        }
+    }
+
+    public byte opcode(int slot) {
+        return current.opcode[slot];
+    }
+
+    public int regA(int slot) {
+        return current.regA[slot];
+    }
+
+    public int regB(int slot) {
+        return current.regB[slot];
+    }
+
+    public long valC(int slot) {
+        return current.valC[slot];
+    }
+
+    public int length(int slot) {
+        return current.length[slot];
+    }
+
+    void invalidate(long address, int count) {
+        long end = Math.min(address + count, capacity);
+        for (long x = Math.max(address, 0); x < end; x++) {
+            Lines l = pages[(int) (x >>> Memory.PAGE_BITS)];
+            if (l != null && l.stamp == epoch && l.code[(int) x & OFFSET]) {
+                for (long y = Math.max(address, 0); y < end; y++) {
+                    l = pages[(int) (y >>> Memory.PAGE_BITS)];
+                    if (l != null && l.stamp == epoch) {
+                        l.code[(int) y & OFFSET] = false;
+                    }
+                }
+                for (long y = Math.max(address - MAX_LENGTH + 1, 0); y < end; y++) {
+                    l = pages[(int) (y >>> Memory.PAGE_BITS)];
+                    if (l != null && l.stamp == epoch) {
+                        l.length[(int) y & OFFSET] = 0;
+                    }
+                }
+                generation++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Throws every decoded instruction away in constant time. Pages decoded
+     * before are cleared the next time code on them is looked up.
+     */
+    void clear() {
+        epoch++;
+        generation++;
+    }
+
+    /**
+     * Changes every time decoded instructions are thrown away, so anything
+     * built on top of them can tell that it is out of date.
+     */
+    public int generation() {
+        return generation;
+    }
+
+    private static final class Lines {
+
+        private final byte[] opcode;
+        private final byte[] regA;
+        private final byte[] regB;
+        private final byte[] length;
+        private final long[] valC;
+        private final boolean[] code;
+        private int stamp;
+
+        private Lines(int size) {
+            opcode = new byte[size];
+            regA = new byte[size];
+            regB = new byte[size];
+            length = new byte[size];
+            valC = new long[size];
+            code = new boolean[size];
+        }
+    }
+}
@@ -1,109 +1,501 @@
 package virtual.machine.internal;
 
-import virtual.machine.core.Strings;
-import java.util.HashMap;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.MapChangeListener;
-import javafx.collections.ObservableList;
-import javafx.collections.ObservableMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
 
 /**
+ * Guest memory, split into 4 KiB pages that are only allocated once
+ * something other than zero is written to them. Pages that were never
+ * written read as zero. A two-level page table maps addresses to pages, so
+ * a large address space only costs memory for the pages a program actually
+ * uses.
+ *
+ * Pages live outside the Java heap, carved out of direct buffers of up to
+ * 64 pages each, so large images are neither copied around nor scanned by
+ * the garbage collector. They are read and written little-endian, which is
+ * the native order on the usual hosts. Object files can also be mapped in
+ * directly, in which case their pages are shared with the page cache until
+ * the program writes to them.
  *
  * @author aniket
  */
 public class Memory {
 
-    private final ObservableMap<Integer, Integer> memory;
-    private final ObservableList<Data> data;
-    private final String emptyHex = "0x00000000";
-    private final int capacity;
+    public static final int PAGE_BITS = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int OFFSET = PAGE_SIZE - 1;
+    private static final int TABLE_BITS = 10;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final int CHUNK_PAGES = 64;
+    private static final byte[] ZEROS = new byte[PAGE_SIZE];
+    private static final ByteBuffer NONE = ByteBuffer.allocateDirect(PAGE_SIZE).asReadOnlyBuffer();
+
+    /**
+     * Largest address space a machine can have.
+     */
+    public static final long MAX_CAPACITY = 1L << 40;
+
+    private final Page[][] directory;
+    private volatile Page[] touched = new Page[16];
+    private volatile int pages;
+    private Page[] mapped = new Page[0];
+    private int mappings;
+    private final InstructionCache cache;
+    private final long capacity;
     private final Environment environ;
+    private ByteBuffer chunk;
+    private int generation;
 
-    public Memory(Environment e, int initialSize) {
+    public Memory(Environment e, long size) {
+        if (size <= 0 || size > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Memory size must be between 1 and " + MAX_CAPACITY + " bytes");
+        }
         environ = e;
-        capacity = initialSize;
-        memory = FXCollections.observableMap(new HashMap<>());
-        data = FXCollections.observableArrayList();
-        memory.addListener((MapChangeListener.Change<? extends Integer, ? extends Integer> change) -> {
-            if (change.wasRemoved()) {
-                data.get(change.getKey() >> 2).setValue(emptyHex);
+        capacity = size;
+        directory = new Page[(int) ((size + ((long) PAGE_SIZE << TABLE_BITS) - 1) >>> (PAGE_BITS + TABLE_BITS))][];
+        cache = new InstructionCache(this, (int) Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Bytes of pages that have been allocated so far.
+     */
+    public long occupiedSpace() {
+        return (long) pages * PAGE_SIZE;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets every byte back to zero. Pages stamped with an older generation
+     * read as zero from here on and are only cleared once they are written
+     * again, so this takes constant time apart from letting go of pages that
+     * still point into a mapped file.
+     */
+    public final void reset() {
+        generation++;
+        release();
+        cache.clear();
+    }
+
+    /**
+     * Gives every page that still points into a mapped file its own copy, so
+     * nothing refers to the file any more and it can be rewritten. The
+     * mapping itself goes away once the garbage collector gets to it.
+     */
+    public void unmap() {
+        for (int x = 0; x < mappings; x++) {
+            Page p = mapped[x];
+            if (p.shared && p.stamp == generation) {
+                own(p);
             }
-            if (change.wasAdded()) {
-                if (change.getKey() >> 2 <= data.size()) {
-                    for (int x = data.size() << 2; x <= change.getKey(); x += 4) {
-                        data.add(new Data(x, 0));
-                    }
-                }
-                data.get(change.getKey() >> 2).setValue(Strings.getHex(change.getValueAdded(), 8));
+        }
+        release();
+    }
+
+    /**
+     * Drops every page still pointing into a mapped file. Any such page is
+     * stale by now and stays marked shared, so touch gives it a fresh buffer
+     * once it is written again. Until then it points at a page of zeros
+     * rather than nothing, since the view may still be reading it.
+     */
+    private void release() {
+        for (int x = 0; x < mappings; x++) {
+            Page p = mapped[x];
+            if (p.shared) {
+                p.data = NONE;
             }
-        });
-        for (int x = 0; x < capacity; x += 4) {
-            memory.put(x, 0);
+            mapped[x] = null;
         }
+        mappings = 0;
     }
 
-    public long occupiedSpace() {
-        return memory.size() << 2;
+    /**
+     * Makes the image the only content of memory, starting at base, with
+     * every other byte zero.
+     */
+    public void load(byte[] image, long base) {
+        reset();
+        write(base, image, 0, image.length);
     }
 
-    public final void reset() {
-        memory.clear();
+    public InstructionCache getInstructionCache() {
+        return cache;
+    }
+
+    /**
+     * The page holding address, or null if it reads as zero.
+     */
+    private Page page(long address) {
+        Page p = entry(address);
+        return p == null || p.stamp != generation ? null : p;
     }
 
-    public byte getByte(int address) {
-        int rem = address & 3;
-        address = address - rem;
-        rem = 24 - (rem << 3);
-        Integer b = memory.get(address);
-        return (byte) (b == null ? 0 : ((b >>> rem) & 0xFF));
+    private Page entry(long address) {
+        Page[] table = directory[(int) (address >>> (PAGE_BITS + TABLE_BITS))];
+        return table == null ? null : table[(int) (address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
     }
 
-    public void putByte(int address, byte value) {
-        if (address < capacity) {
-            int rem = address & 3;
-            address = address - rem;
-            rem = 24 - (rem << 3);
-            Integer b = memory.get(address);
-            if (b == null) {
-                b = 0;
+    private Page touch(long address) {
+        Page p = entry(address);
+        if (p == null) {
+            return install(address, allocate());
+        }
+        if (p.stamp != generation) {
+            if (p.shared) {
+                p.data = allocate();
+                p.shared = false;
+            } else {
+                p.data.duplicate().put(ZEROS);
             }
-            int mask = (b ^ (value << rem)) & (0xFF << rem);
-            memory.put(address, mask ^ b);
+            Arrays.fill(p.dirty, 0);
+            p.changed = false;
+            p.stamp = generation;
+        }
+        return p;
+    }
+
+    /**
+     * Puts the given buffer in as the page holding address, replacing the
+     * page that was there.
+     */
+    private Page install(long address, ByteBuffer data) {
+        int index = (int) (address >>> (PAGE_BITS + TABLE_BITS));
+        Page[] table = directory[index];
+        if (table == null) {
+            table = new Page[TABLE_SIZE];
+            directory[index] = table;
+        }
+        int slot = (int) (address >>> PAGE_BITS) & (TABLE_SIZE - 1);
+        Page p = table[slot];
+        if (p != null) {
+            p.data = data;
+            p.shared = false;
+            p.stamp = generation;
+            return p;
+        }
+        p = new Page(address & ~OFFSET, data, generation);
+        table[slot] = p;
+        int n = pages;
+        Page[] all = touched;
+        if (n == all.length) {
+            all = Arrays.copyOf(all, n << 1);
+        }
+        all[n] = p;
+        touched = all;
+        pages = n + 1;
+        return p;
+    }
+
+    /**
+     * Gives a page that still points into a mapped file its own copy, the
+     * first time the program writes to it.
+     */
+    private void own(Page p) {
+        ByteBuffer copy = allocate();
+        copy.duplicate().put(p.data.duplicate());
+        p.data = copy;
+        p.shared = false;
+    }
+
+    /**
+     * Hands out the next page worth of off-heap memory, starting a new chunk
+     * when the current one is used up. Small machines get a chunk sized to
+     * their memory instead of a full one.
+     */
+    private ByteBuffer allocate() {
+        if (chunk == null || !chunk.hasRemaining()) {
+            long size = Math.min((capacity + OFFSET) & ~OFFSET, (long) CHUNK_PAGES * PAGE_SIZE);
+            chunk = ByteBuffer.allocateDirect((int) size);
+        }
+        chunk.limit(chunk.position() + PAGE_SIZE);
+        ByteBuffer page = chunk.slice().order(ByteOrder.LITTLE_ENDIAN);
+        chunk.position(chunk.limit());
+        chunk.limit(chunk.capacity());
+        return page;
+    }
+
+    public byte getByte(long address) {
+        if (address < 0 || address >= capacity) {
+            return 0;
+        }
+        Page p = page(address);
+        return p == null ? 0 : p.data.get((int) address & OFFSET);
+    }
+
+    public void putByte(long address, byte value) {
+        if (address >= 0 && address < capacity) {
+            Page p = page(address);
+            if (p == null) {
+                if (value == 0) {
+                    return;
+                }
+                p = touch(address);
+            } else if (p.shared) {
+                own(p);
+            }
+            int offset = (int) address & OFFSET;
+            p.data.put(offset, value);
+            p.markDirty(offset);
+            cache.invalidate(address, 1);
         } else {
             environ.setStatus(2);
         }
     }
 
-    public ObservableList<Data> getData() {
-        return data;
+    public int readRegA(long address) {
+        return (getByte(address) >>> 4) & 0xF;
     }
 
-    public class Data {
+    public int readRegB(long address) {
+        return getByte(address) & 0xF;
+    }
 
-        private final SimpleStringProperty address;
-        private final SimpleStringProperty value;
+    public long readLong(long address) {
+        int offset = (int) address & OFFSET;
+        if (address >= 0 && address <= capacity - Long.BYTES && offset <= PAGE_SIZE - Long.BYTES) {
+            Page p = page(address);
+            return p == null ? 0 : p.data.getLong(offset);
+        }
+        long value = 0;
+        for (int x = Long.BYTES - 1; x >= 0; x--) {
+            value = (value << 8) | (getByte(address + x) & 0xFF);
+        }
+        return value;
+    }
 
-        private Data(int addr, int val) {
-            address = new SimpleStringProperty(Strings.getHex(addr, 4));
-            value = new SimpleStringProperty(Strings.getHex(val, 8));
+    public void writeLong(long address, long value) {
+        int offset = (int) address & OFFSET;
+        if (address >= 0 && address <= capacity - Long.BYTES && offset <= PAGE_SIZE - Long.BYTES) {
+            Page p = page(address);
+            if (p == null) {
+                if (value == 0) {
+                    return;
+                }
+                p = touch(address);
+            } else if (p.shared) {
+                own(p);
+            }
+            p.data.putLong(offset, value);
+            p.markDirty(offset);
+            p.markDirty(offset + 4);
+            p.markDirty(offset + Long.BYTES - 1);
+            cache.invalidate(address, Long.BYTES);
+        } else {
+            for (int x = 0; x < Long.BYTES; x++) {
+                putByte(address + x, (byte) (value >>> (x << 3)));
+            }
         }
+    }
 
-        public String getAddress() {
-            return address.get();
+    /**
+     * Copies length bytes starting at address into the array. Bytes outside
+     * of memory read as zero.
+     */
+    public void read(long address, byte[] into, int from, int length) {
+        while (length > 0) {
+            int offset = (int) address & OFFSET;
+            int count = Math.min(length, PAGE_SIZE - offset);
+            Page p = address >= 0 && address + count <= capacity ? page(address) : null;
+            if (p != null) {
+                ByteBuffer d = p.data.duplicate();
+                d.position(offset);
+                d.get(into, from, count);
+            } else if (address >= 0 && address + count <= capacity) {
+                Arrays.fill(into, from, from + count, (byte) 0);
+            } else {
+                for (int x = 0; x < count; x++) {
+                    into[from + x] = getByte(address + x);
+                }
+            }
+            address += count;
+            from += count;
+            length -= count;
         }
+    }
 
-        public void setAddress(String adds) {
-            address.set(adds);
+    /**
+     * Copies length bytes of the array into memory starting at address, a
+     * page at a time. Bytes that fall outside of memory set status ADR like
+     * putByte does.
+     */
+    public void write(long address, byte[] from, int start, int length) {
+        while (length > 0) {
+            int offset = (int) address & OFFSET;
+            int count = Math.min(length, PAGE_SIZE - offset);
+            if (address < 0 || address + count > capacity) {
+                for (int x = 0; x < count; x++) {
+                    putByte(address + x, from[start + x]);
+                }
+            } else {
+                Page p = page(address);
+                if (p == null && !zero(from, start, count)) {
+                    p = touch(address);
+                }
+                if (p != null) {
+                    if (p.shared) {
+                        own(p);
+                    }
+                    ByteBuffer d = p.data.duplicate();
+                    d.position(offset);
+                    d.put(from, start, count);
+                    for (int x = offset & ~3; x < offset + count; x += 4) {
+                        p.markDirty(x);
+                    }
+                    cache.invalidate(address, count);
+                }
+            }
+            address += count;
+            start += count;
+            length -= count;
         }
+    }
 
-        public String getValue() {
-            return value.get();
+    /**
+     * Like load, but takes the image from an object file without copying
+     * it. The whole pages of the file are mapped read-only and become the
+     * guest pages, each getting its own copy only once the program writes to
+     * it, so the file itself never changes. The tail of the file that does
+     * not fill a page is copied. Falls back to a plain bulk write when base is not on a page
+     * boundary or the file does not fit.
+     *
+     * The file must not be changed while it is mapped, or memory changes
+     * with it. Call unmap before rewriting it.
+     */
+    public void map(Path file, long base) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            reset();
+            if ((base & OFFSET) != 0 || base < 0 || base + size > capacity || size > Integer.MAX_VALUE) {
+                byte[] read = Files.readAllBytes(file);
+                write(base, read, 0, read.length);
+                return;
+            }
+            long whole = size & ~OFFSET;
+            if (whole > 0) {
+                ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, whole);
+                for (long offset = 0; offset < whole; offset += PAGE_SIZE) {
+                    image.limit((int) offset + PAGE_SIZE).position((int) offset);
+                    Page p = install(base + offset, image.slice().order(ByteOrder.LITTLE_ENDIAN));
+                    p.shared = true;
+                    Arrays.fill(p.dirty, -1L);
+                    p.changed = true;
+                    if (mappings == mapped.length) {
+                        mapped = Arrays.copyOf(mapped, Math.max(16, mappings << 1));
+                    }
+                    mapped[mappings++] = p;
+                }
+            }
+            if (size > whole) {
+                ByteBuffer tail = ByteBuffer.allocate((int) (size - whole));
+                while (tail.hasRemaining() && channel.read(tail, whole + tail.position()) >= 0) {
+                }
+                write(base + whole, tail.array(), 0, tail.position());
+            }
         }
+        cache.clear();
+    }
 
-        public void setValue(String adds) {
-            value.set(adds);
+    private static boolean zero(byte[] array, int start, int length) {
+        for (int x = start; x < start + length; x++) {
+            if (array[x] != 0) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    /**
+     * Hands the address of every 4-byte word written since the last call to
+     * the given consumer. Meant to be called by the execution thread when it
+     * publishes a snapshot, so that writes never have to notify anyone. Words
+     * cleared by reset are not reported, only those written since, so a reset
+     * costs nothing here however much memory was in use before it.
+     */
+    public void sync(LongConsumer changed) {
+        Page[] all = touched;
+        int current = generation;
+        for (int x = 0, n = pages; x < n; x++) {
+            Page p = all[x];
+            if (!p.changed) {
+                continue;
+            }
+            p.changed = false;
+            if (p.stamp != current) {
+                Arrays.fill(p.dirty, 0);
+                continue;
+            }
+            for (int y = 0; y < p.dirty.length; y++) {
+                long bits = p.dirty[y];
+                if (bits == 0) {
+                    continue;
+                }
+                p.dirty[y] = 0;
+                while (bits != 0) {
+                    int word = (y << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    changed.accept(p.base + (word << 2));
+                }
+            }
+        }
+    }
+
+    int generation() {
+        return generation;
+    }
 
+    /**
+     * The byte at address as of the given generation, for threads other than
+     * the execution thread. The page may be replaced or written while it is
+     * read, so the result can be a later value than the one wanted, or zero,
+     * but never a failure.
+     */
+    byte peek(long address, int current) {
+        if (address < 0 || address >= capacity) {
+            return 0;
+        }
+        Page p = entry(address);
+        if (p == null || p.stamp != current) {
+            return 0;
+        }
+        ByteBuffer d = p.data;
+        return d == null ? 0 : d.get((int) address & OFFSET);
+    }
+
+    public int getWord(long address) {
+        return (getByte(address) & 0xFF) << 24
+                | (getByte(address + 1) & 0xFF) << 16
+                | (getByte(address + 2) & 0xFF) << 8
+                | (getByte(address + 3) & 0xFF);
+    }
+
+    private static final class Page {
+
+        private final long base;
+        private ByteBuffer data;
+        private final long[] dirty = new long[PAGE_SIZE >> 8];
+        private boolean changed;
+        private boolean shared;
+        private int stamp;
+
+        private Page(long base, ByteBuffer data, int stamp) {
+            this.base = base;
+            this.data = data;
+            this.stamp = stamp;
+        }
+
+        private void markDirty(int offset) {
+            int word = offset >> 2;
+            dirty[word >> 6] |= 1L << word;
+            changed = true;
+        }
     }
 }
@@ -0,0 +1,101 @@
+package virtual.machine.internal;
+
+import java.util.Arrays;
+
+/**
+ * The state of a machine at one point of a run, as the view shows it. Made on
+ * the execution thread and never changed afterwards, so any thread can read
+ * it once it has been handed over.
+ *
+ * Memory is not copied, since copying all of memory for every frame would
+ * cost far more than drawing the few rows on screen. The snapshot keeps the
+ * addresses of the words written since the snapshot before, and reads words
+ * straight from the machine when asked, so those may show writes made after
+ * the snapshot was taken.
+ *
+ * @author aniket
+ */
+public final class Snapshot {
+
+    private final int counter;
+    private final int status;
+    private final long executed;
+    private final int flags;
+    private final long[] registers;
+    private final int written;
+    private final long[] changed;
+    private final Memory memory;
+    private final int generation;
+
+    Snapshot(int counter, int status, long executed, int flags, long[] registers, int written, long[] changed,
+            Memory memory, int generation) {
+        this.counter = counter;
+        this.status = status;
+        this.executed = executed;
+        this.flags = flags;
+        this.registers = registers;
+        this.written = written;
+        this.changed = changed;
+        this.memory = memory;
+        this.generation = generation;
+    }
+
+    public int programCounter() {
+        return counter;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public String getStatus() {
+        return Environment.statusName(status);
+    }
+
+    public long instructionCount() {
+        return executed;
+    }
+
+    /**
+     * The condition codes as a mask of the Alu flag bits.
+     */
+    public int flags() {
+        return flags;
+    }
+
+    public int registers() {
+        return registers.length;
+    }
+
+    public long register(int i) {
+        return registers[i];
+    }
+
+    /**
+     * Whether register i was written between the snapshot before and this
+     * one.
+     */
+    public boolean isWritten(int i) {
+        return (written & (1 << i)) != 0;
+    }
+
+    /**
+     * Whether the word at address was written between the snapshot before
+     * and this one.
+     */
+    public boolean isChanged(long address) {
+        return Arrays.binarySearch(changed, address) >= 0;
+    }
+
+    /**
+     * The big-endian word at address, read from memory as it is now. Safe to
+     * call from any thread while the machine runs; memory cleared by a reset
+     * after this snapshot still reads as it was until it is written again.
+     */
+    public int getWord(long address) {
+        return (memory.peek(address, generation) & 0xFF) << 24
+                | (memory.peek(address + 1, generation) & 0xFF) << 16
+                | (memory.peek(address + 2, generation) & 0xFF) << 8
+                | (memory.peek(address + 3, generation) & 0xFF);
+    }
+}
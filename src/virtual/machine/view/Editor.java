@@ -9,13 +9,13 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javafx.animation.FadeTransition;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.collections.ObservableSet;
 import javafx.event.ActionEvent;
 import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
@@ -63,16 +63,18 @@ import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import javafx.util.converter.DefaultStringConverter;
 import static virtual.machine.Y86VM.ICON;
 import virtual.machine.core.Pair;
 import virtual.machine.core.Script;
+import virtual.machine.internal.Breakpoints;
 import virtual.machine.internal.Environment;
 import virtual.machine.execution.Compiler;
 import virtual.machine.execution.CompilerException;
-import virtual.machine.internal.Memory.Data;
-import virtual.machine.internal.Registers.Register;
 import virtual.machine.core.Strings;
-import virtual.machine.internal.Environment.Condition;
+import virtual.machine.view.EnvironmentAdapter.Condition;
+import virtual.machine.view.EnvironmentAdapter.Data;
+import virtual.machine.view.EnvironmentAdapter.Register;
 
 /**
  *
@@ -82,6 +84,7 @@ public class Editor extends BorderPane {
 
     private final String DEFAULT_STRING = "init:\n\tirmovq  $0x100, %rsp\n\n\tcall Main\n\thalt\n\n"
             + "Main:\n\n\tret\n\n\n\t.pos 0x100\nStack:\n\n\n\n\n";
+    private static final String CHANGED_STYLE = "-fx-text-fill: orange; -fx-font-weight: bold;";
     private final TabPane pane;
     private final BorderPane center;
     private final BorderPane top, left, bottom;
@@ -89,12 +92,16 @@ public class Editor extends BorderPane {
     private final TableView<Data> memory;
     private final TableView<Register> registers;
     private final Environment environment;
+    private final EnvironmentAdapter adapter;
     private final BooleanProperty runnable = new SimpleBooleanProperty(false);
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private long frame, published;
     private Terminal term;
-    private final ObservableSet<Integer> breakpoints = FXCollections.observableSet(new HashSet<>());
+    private final Breakpoints breakpoints = new Breakpoints();
 
     public Editor(Environment environ) {
         environment = environ;
+        adapter = new EnvironmentAdapter(environ);
         MenuBar bar = build();
         bar.setUseSystemMenuBar(true);
         pane = new TabPane();
@@ -203,7 +210,7 @@ public class Editor extends BorderPane {
             File file = new File(Preferences.getFileDirectory(), "function.ys");
             if (!file.exists()) {
                 pane.getTabs().addAll(new ScriptTab(new Script(file,
-                        DEFAULT_STRING), environ));
+                        DEFAULT_STRING), adapter));
             }
         }
         /**
@@ -223,8 +230,8 @@ public class Editor extends BorderPane {
         BorderPane.setAlignment(left.getTop(), Pos.CENTER);
         BorderPane.setMargin(left.getTop(), new Insets(5));
         setLeft(left);
-        memory.setItems(environment.getMemory().getData());
-        value.setCellFactory(TextFieldTableCell.<Data>forTableColumn());
+        memory.setItems(adapter.getData());
+        value.setCellFactory((column) -> new MemoryCell());
         value.setOnEditCommit((CellEditEvent<Data, String> t) -> {
             String p = t.getNewValue();
             if (p.startsWith("0x")) {
@@ -232,19 +239,24 @@ public class Editor extends BorderPane {
             }
             try {
                 long l = Long.parseLong(p, 16);
-                environ.getMemory().putByte(t.getTablePosition().getRow(), (byte) l);
+                long location = t.getRowValue().getLocation();
+                environ.submit(() -> {
+                    for (int x = 0; x < 4; x++) {
+                        environ.getMemory().putByte(location + x, (byte) (l >>> ((3 - x) << 3)));
+                    }
+                });
             } catch (NumberFormatException e) {
                 t.consume();
             }
-            memory.refresh();
+            refresh();
         });
 
         /**
          * bottom all registers
          */
         VBox right = new VBox(5);
-        Label pc = new Label("Program Counter : " + Strings.getHex(environment.programCounter(), 4));
-        Label st = new Label("Status : " + environment.getStatus());
+        Label pc = new Label("Program Counter : " + Strings.getHex(adapter.counter().get(), 4));
+        Label st = new Label("Status : " + Environment.statusName(adapter.status().get()));
         right.getChildren().addAll(pc, st);
         right.setAlignment(Pos.TOP_CENTER);
         right.setPadding(new Insets(5));
@@ -262,8 +274,8 @@ public class Editor extends BorderPane {
         hex.setCellValueFactory(new PropertyValueFactory("hex"));
         deci.setCellValueFactory(new PropertyValueFactory("decimal"));
         setRight(right);
-        registers.getItems().addAll(environment.getRegister().registerData());
-        hex.setCellFactory(TextFieldTableCell.<Register>forTableColumn());
+        registers.getItems().addAll(adapter.registerData());
+        hex.setCellFactory((column) -> new RegisterCell());
         hex.setOnEditCommit((CellEditEvent<Register, String> t) -> {
             String p = t.getNewValue();
             if (p.startsWith("0x")) {
@@ -271,21 +283,23 @@ public class Editor extends BorderPane {
             }
             try {
                 long l = Long.parseLong(p, 16);
-                environ.getRegister().setValueInRegister(t.getRowValue().getName().substring(1), l);
+                int index = t.getRowValue().getIndex();
+                environ.submit(() -> environ.getRegister().setValueInRegister(index, l));
             } catch (NumberFormatException e) {
                 t.consume();
             }
-            registers.refresh();
+            refresh();
         });
-        deci.setCellFactory(TextFieldTableCell.<Register>forTableColumn());
+        deci.setCellFactory((column) -> new RegisterCell());
         deci.setOnEditCommit((CellEditEvent<Register, String> t) -> {
             try {
                 long l = Long.parseLong(t.getNewValue());
-                environ.getRegister().setValueInRegister(t.getRowValue().getName().substring(1), l);
+                int index = t.getRowValue().getIndex();
+                environ.submit(() -> environ.getRegister().setValueInRegister(index, l));
             } catch (NumberFormatException e) {
                 t.consume();
             }
-            registers.refresh();
+            refresh();
         });
 
         /**
@@ -299,27 +313,26 @@ public class Editor extends BorderPane {
         cod.setCellValueFactory(new PropertyValueFactory("stateValue"));
         nam.setCellValueFactory(new PropertyValueFactory("name"));
         codes.getColumns().addAll(nam, cod);
-        codes.getItems().addAll(environment.getCodes());
-        environment.zeroProperty().addListener((ob, older, newer) -> {
+        codes.getItems().addAll(adapter.getCodes());
+        adapter.zeroProperty().addListener((ob, older, newer) -> {
             codes.refresh();
         });
-        environment.overflowProperty().addListener((ob, older, newer) -> {
+        adapter.overflowProperty().addListener((ob, older, newer) -> {
             codes.refresh();
         });
-        environment.signProperty().addListener((ob, older, newer) -> {
+        adapter.signProperty().addListener((ob, older, newer) -> {
             codes.refresh();
         });
-        environment.carryProperty().addListener((ob, older, newer) -> {
+        adapter.carryProperty().addListener((ob, older, newer) -> {
             codes.refresh();
         });
-        environment.status().addListener((ob, older, newer) -> {
-            Platform.runLater(() -> st.setText("Status : " + environment.getStatus()));
+        adapter.status().addListener((ob, older, newer) -> {
+            st.setText("Status : " + Environment.statusName(newer.intValue()));
         });
-        environment.counter().addListener((ob, older, newer) -> {
-            Platform.runLater(()
-                    -> pc.setText("Program Counter : " + Strings.getHex(environment.programCounter(), 4)));
+        adapter.counter().addListener((ob, older, newer) -> {
+            pc.setText("Program Counter : " + Strings.getHex(newer.intValue(), 4));
         });
-        environment.setBreakCall((param) -> {
+        environment.setBreakCall(() -> {
             Platform.runLater(() -> {
                 Alert al = new Alert(AlertType.INFORMATION);
                 ((Stage) al.getDialogPane().getScene().getWindow()).getIcons().add(ICON);
@@ -333,15 +346,14 @@ public class Editor extends BorderPane {
                 al.getButtonTypes().setAll(next, run, halt);
                 al.showAndWait().ifPresent((eb) -> {
                     if (eb.equals(next)) {
-                        environment.override();
+                        environment.submit(environment::override);
                         next();
                     } else if (eb.equals(run)) {
-                        environment.override();
+                        environment.submit(environment::override);
                         run();
                     }
                 });
             });
-            return null;
         });
         right.getChildren().add(registers);
         right.getChildren().add(new Label("Condition Codes"));
@@ -393,7 +405,7 @@ public class Editor extends BorderPane {
                 f.mkdirs();
             }
             read.forEach((s) -> {
-                pane.getTabs().add(new ScriptTab(new Script(new File(s), ""), environment));
+                pane.getTabs().add(new ScriptTab(new Script(new File(s), ""), adapter));
             });
             pane.getSelectionModel().select(pane.getTabs().get(pane.getTabs().size() - 1));
         } catch (IOException ex) {
@@ -484,32 +496,73 @@ public class Editor extends BorderPane {
 
     public void next() {
         if (runnable.get()) {
-            environment.nextInstruction((param) -> {
-                refresh();
-                return null;
-            }, breakpoints, false);
+            environment.nextInstruction(this::show, breakpoints, false);
         }
     }
 
     public void run() {
         if (runnable.get()) {
-            environment.run((param) -> {
-                refresh();
-                return null;
-            }, breakpoints);
+            frame = 1_000_000_000L / Math.max(1, Preferences.getRefreshRate());
+            published = System.nanoTime();
+            environment.run(this::publish, breakpoints);
+        }
+    }
+
+    /**
+     * Called on the execution thread every few hundred blocks of a run.
+     * Publishes a snapshot at most once per frame. The last call of a run
+     * always gets through so the final state is shown, including when the
+     * run stops to wait for input with the machine still AOK.
+     */
+    private void publish() {
+        long now = System.nanoTime();
+        if (environment.isRunning() && !environment.allowingInput() && now - published < frame) {
+            return;
         }
+        published = now;
+        show();
     }
 
+    /**
+     * Publishes a snapshot and has the FX thread draw it. Has to be called on
+     * the execution thread. Never queues another redraw while one is still
+     * waiting, that one picks up the newer snapshot anyway.
+     */
+    private void show() {
+        environment.publish();
+        if (pending.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                pending.set(false);
+                adapter.refresh();
+                memory.refresh();
+                registers.refresh();
+            });
+        }
+    }
+
+    /**
+     * Redraws once the execution thread has caught up with everything asked
+     * of it so far.
+     */
     private void refresh() {
-        memory.refresh();
-        registers.refresh();
+        environment.submit(this::show);
     }
 
     public void stop() {
-        environment.setStatus(1);
+        halt(this::show);
         runnable.set(false);
     }
 
+    /**
+     * Stops a run that may be going on, ending any input it is waiting for,
+     * so that whatever is submitted next runs once it has stopped. The
+     * callback runs on the execution thread.
+     */
+    private void halt(Runnable call) {
+        environment.cancel(call);
+        term.release();
+    }
+
     public void compile() {
         save();
         reset();
@@ -517,13 +570,20 @@ public class Editor extends BorderPane {
             try {
                 ArrayList<Pair<String, ArrayList<Byte>>> interpret = Compiler.getInstance().compile(ef.getScript().getCurrentCode());
                 ArrayList<Byte> all = new ArrayList<>();
+                int size = 0;
+                for (Pair<String, ArrayList<Byte>> p : interpret) {
+                    size += p.getValue().size();
+                }
+                byte[] image = new byte[size];
                 int loc = 0;
-                ObservableSet<Integer> actualBreakpoints = FXCollections.observableSet(new HashSet<>());
+                HashSet<Integer> actualBreakpoints = new HashSet<>();
                 int line = 0;
+                int[] addresses = new int[interpret.size()];
                 StringBuilder sb = new StringBuilder();
                 for (Pair<String, ArrayList<Byte>> p : interpret) {
-                    sb.append(Strings.getHex(loc, 4)).append("\t");
-                    String value = "";
+                    addresses[line] = loc;
+                    Strings.appendHex(sb, loc, 4).append("\t");
+                    int start = sb.length();
                     boolean notAllZeros = false;
                     for (Byte b : p.getValue()) {
                         if (b == 0x01 && p.getKey().trim().equals("brk")) {
@@ -531,23 +591,20 @@ public class Editor extends BorderPane {
                         } else {
                             all.add(b);
                         }
-                        value += Strings.getHexMinusPrefix(b & 0xFF, 2);
-                        environment.getMemory().putByte(loc, b);
+                        image[loc] = b;
                         if (b != 0) {
                             notAllZeros = true;
                         }
                         loc++;
                     }
                     if (notAllZeros) {
-                        while (value.length() < 20) {
-                            value += " ";
+                        for (int x = loc - p.getValue().size(); x < loc; x++) {
+                            Strings.appendHexMinusPrefix(sb, image[x] & 0xFF, 2);
                         }
-                    } else {
-                        value = "                    ";
                     }
-                    breakpoints.clear();
-                    breakpoints.addAll(actualBreakpoints);
-                    sb.append(value);
+                    while (sb.length() - start < 20) {
+                        sb.append(' ');
+                    }
                     sb.append("\t|\t");
                     if (!p.getKey().endsWith(":")) {
                         sb.append("\t");
@@ -555,20 +612,25 @@ public class Editor extends BorderPane {
                     sb.append(p.getKey()).append("\n");
                     line++;
                 }
-                ef.setObjectText(sb.toString());
-                ef.alignCounter(0);
-                runnable.set(true);
-                memory.refresh();
-                fadingNotification(pane, "Compilation Successful");
                 File obj = new File(ef.getScript().getFile().getParentFile(), ef.getScript().getFile().getName().substring(0, ef.getScript().getFile().getName().indexOf(".")) + ".yo");
                 byte[] arr = new byte[all.size()];
                 for (int x = 0; x < arr.length; x++) {
                     arr[x] = all.get(x);
                 }
-                try {
-                    Files.write(obj.toPath(), arr);
-                } catch (IOException ex) {
-                }
+                environment.submit(() -> {
+                    environment.getMemory().load(image, 0);
+                    try {
+                        Files.write(obj.toPath(), arr);
+                    } catch (IOException ex) {
+                        Platform.runLater(() -> fadingNotification(pane, "Could not write " + obj.getName()));
+                    }
+                });
+                breakpoints.set(actualBreakpoints);
+                ef.setObjectText(sb.toString(), addresses);
+                ef.alignCounter(0);
+                runnable.set(true);
+                refresh();
+                fadingNotification(pane, "Compilation Successful");
             } catch (CompilerException ex) {
                 fadingNotification(pane, "Compilation Failed");
             }
@@ -576,10 +638,14 @@ public class Editor extends BorderPane {
     }
 
     public void reset() {
-        environment.getRegister().reset();
-        environment.getMemory().reset();
+        halt(() -> {
+        });
+        environment.submit(() -> {
+            environment.getRegister().reset();
+            environment.getMemory().reset();
+            environment.reset();
+        });
         refresh();
-        environment.reset();
         getSelectedTab().ifPresent((e) -> {
             e.reset();
         });
@@ -605,16 +671,19 @@ public class Editor extends BorderPane {
         fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Assembly Object File", "*.yo"));
         File open = fc.showOpenDialog(getScene().getWindow());
         if (open != null) {
-            try {
-                byte[] read = Files.readAllBytes(open.toPath());
-                for (int x = 0; x < read.length; x++) {
-                    environment.getMemory().putByte(x, read[x]);
+            halt(() -> {
+            });
+            environment.submit(() -> {
+                try {
+                    // Read rather than mapped, since compile may rewrite the file
+                    environment.getMemory().load(Files.readAllBytes(open.toPath()), 0);
+                    environment.reset();
+                    Platform.runLater(() -> runnable.set(true));
+                } catch (IOException ex) {
+                    Platform.runLater(() -> fadingNotification(pane, "Could not load " + open.getName()));
                 }
-                runnable.set(true);
-                memory.refresh();
-                environment.reset();
-            } catch (IOException ex) {
-            }
+            });
+            refresh();
         }
     }
 
@@ -630,7 +699,7 @@ public class Editor extends BorderPane {
             }
         }
         if (go) {
-            pane.getTabs().add(new ScriptTab(sca, environment));
+            pane.getTabs().add(new ScriptTab(sca, adapter));
             pane.getSelectionModel().select(pane.getTabs().get(pane.getTabs().size() - 1));
         }
     }
@@ -650,7 +719,7 @@ public class Editor extends BorderPane {
             File fa = new File(f, ef);
             try {
                 Files.createFile(fa.toPath());
-                pane.getTabs().add(new ScriptTab(new Script(fa, ""), environment));
+                pane.getTabs().add(new ScriptTab(new Script(fa, ""), adapter));
                 pane.getSelectionModel().select(pane.getTabs().get(pane.getTabs().size() - 1));
             } catch (IOException ex) {
             }
@@ -853,4 +922,37 @@ public class Editor extends BorderPane {
         ft2.play();
     }
 
+    /**
+     * Editable memory cell that stands out when its word just changed.
+     */
+    private static class MemoryCell extends TextFieldTableCell<Data, String> {
+
+        MemoryCell() {
+            super(new DefaultStringConverter());
+        }
+
+        @Override
+        public void updateItem(String item, boolean empty) {
+            super.updateItem(item, empty);
+            Data row = empty || getTableRow() == null ? null : (Data) getTableRow().getItem();
+            setStyle(row != null && row.isChanged() ? CHANGED_STYLE : "");
+        }
+    }
+
+    /**
+     * Editable register cell that stands out when its register just changed.
+     */
+    private static class RegisterCell extends TextFieldTableCell<Register, String> {
+
+        RegisterCell() {
+            super(new DefaultStringConverter());
+        }
+
+        @Override
+        public void updateItem(String item, boolean empty) {
+            super.updateItem(item, empty);
+            Register row = empty || getTableRow() == null ? null : (Register) getTableRow().getItem();
+            setStyle(row != null && row.isChanged() ? CHANGED_STYLE : "");
+        }
+    }
 }
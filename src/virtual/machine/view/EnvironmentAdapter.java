@@ -0,0 +1,240 @@
+package virtual.machine.view;
+
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import virtual.machine.core.Strings;
+import virtual.machine.execution.Alu;
+import virtual.machine.internal.Environment;
+import virtual.machine.internal.Snapshot;
+
+/**
+ * Observable view of an Environment for the tables and labels of the editor.
+ * The machine itself keeps plain values and publishes a snapshot of them every
+ * so often, refresh copies the latest snapshot into properties on the FX
+ * thread. Nothing here ever touches the live registers or condition codes.
+ *
+ * Registers are read from the snapshot and only formatted when their row is
+ * drawn. Memory is not copied at all. The memory table gets a list with one row
+ * per word that makes its rows on demand and reads the word when the row is
+ * drawn, so only the rows on screen ever cost anything however large memory
+ * is. The snapshot only says which words changed, for highlighting.
+ *
+ * @author aniket
+ */
+public class EnvironmentAdapter {
+
+    private final Environment environ;
+    private final IntegerProperty counter = new SimpleIntegerProperty(0);
+    private final IntegerProperty status = new SimpleIntegerProperty(0);
+    private final ObservableList<Register> registers = FXCollections.observableArrayList();
+    private final ObservableList<Condition> conditions = FXCollections.observableArrayList();
+    private final Words data = new Words();
+    private Snapshot shown;
+
+    public EnvironmentAdapter(Environment e) {
+        environ = e;
+        shown = e.snapshot();
+        for (int x = 0; x < shown.registers(); x++) {
+            registers.add(new Register(x));
+        }
+        conditions.add(new Condition(false, "Zero Flag"));
+        conditions.add(new Condition(false, "Overflow Flag"));
+        conditions.add(new Condition(false, "Sign Flag"));
+        conditions.add(new Condition(false, "Carry Flag"));
+    }
+
+    public Environment getEnvironment() {
+        return environ;
+    }
+
+    /**
+     * Copies the last snapshot the machine published into the observable
+     * values. Has to be called on the FX thread.
+     */
+    public void refresh() {
+        shown = environ.snapshot();
+        counter.set(shown.programCounter());
+        status.set(shown.status());
+        int flags = shown.flags();
+        conditions.get(0).setState((flags & Alu.ZERO) != 0);
+        conditions.get(1).setState((flags & Alu.OVERFLOW) != 0);
+        conditions.get(2).setState((flags & Alu.SIGN) != 0);
+        conditions.get(3).setState((flags & Alu.CARRY) != 0);
+    }
+
+    /**
+     * Whether the word at address was written just before the snapshot
+     * shown.
+     */
+    public boolean isChanged(long address) {
+        return shown.isChanged(address);
+    }
+
+    public IntegerProperty counter() {
+        return counter;
+    }
+
+    public IntegerProperty status() {
+        return status;
+    }
+
+    public ObservableList<Register> registerData() {
+        return registers;
+    }
+
+    public ObservableList<Condition> getCodes() {
+        return conditions;
+    }
+
+    public ObservableList<Data> getData() {
+        return data;
+    }
+
+    public BooleanProperty zeroProperty() {
+        return conditions.get(0).state;
+    }
+
+    public BooleanProperty signProperty() {
+        return conditions.get(2).state;
+    }
+
+    public BooleanProperty overflowProperty() {
+        return conditions.get(1).state;
+    }
+
+    public BooleanProperty carryProperty() {
+        return conditions.get(3).state;
+    }
+
+    /**
+     * A register as the table shows it. Its value is only formatted when the
+     * row is drawn.
+     */
+    public class Register {
+
+        private final int index;
+
+        private Register(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return environ.getRegister().getName(index);
+        }
+
+        public String getHex() {
+            return Strings.getHex(shown.register(index), 4);
+        }
+
+        public String getDecimal() {
+            return Strings.getDecimal(shown.register(index), 5);
+        }
+
+        /**
+         * Whether the register was written just before the snapshot shown.
+         */
+        public boolean isChanged() {
+            return shown.isWritten(index);
+        }
+    }
+
+    public class Condition {
+
+        private final BooleanProperty state;
+        private final StringProperty name;
+        private final StringProperty stateValue;
+
+        public Condition(boolean a, String name) {
+            state = new SimpleBooleanProperty(a);
+            this.name = new SimpleStringProperty(name);
+            stateValue = new SimpleStringProperty("0");
+            state.addListener((observable, oldValue, newValue) -> {
+                stateValue.set(newValue ? "1" : "0");
+            });
+        }
+
+        public String getName() {
+            return name.get();
+        }
+
+        public void setName(String n) {
+            name.set(n);
+        }
+
+        public String getStateValue() {
+            return stateValue.get();
+        }
+
+        public void setStateValue(String n) {
+            stateValue.set(n);
+        }
+
+        public boolean getState() {
+            return state.get();
+        }
+
+        public void setState(boolean h) {
+            state.set(h);
+        }
+
+    }
+
+    /**
+     * One row per 4-byte word of memory, made when the table asks for it.
+     */
+    private class Words extends ObservableListBase<Data> {
+
+        @Override
+        public Data get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            return new Data((long) index << 2);
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min((environ.getMemory().getCapacity() + 3) >> 2, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A word of memory. Its value is read through the snapshot shown each
+     * time the row is drawn, since the machine may be running meanwhile.
+     */
+    public class Data {
+
+        private final long address;
+
+        private Data(long address) {
+            this.address = address;
+        }
+
+        public long getLocation() {
+            return address;
+        }
+
+        public String getAddress() {
+            return Strings.getHex(address, 4);
+        }
+
+        public String getValue() {
+            return Strings.getHex(shown.getWord(address), 8);
+        }
+
+        public boolean isChanged() {
+            return EnvironmentAdapter.this.isChanged(address);
+        }
+    }
+}
@@ -48,12 +48,14 @@ public class Preferences extends Stage {
     private static final IntegerProperty FONT_SIZE = new SimpleIntegerProperty(13);
     private static final StringProperty FONT_NAME = new SimpleStringProperty("System Regular");
     private static final StringProperty FILE_DIRECTORY = new SimpleStringProperty(new File("").getAbsolutePath() + "/assembly/files");
+    private static final IntegerProperty REFRESH_RATE = new SimpleIntegerProperty(60);
 
     static {
         DARK_THEME.addListener((ob, older, newer) -> write());
         FONT_SIZE.addListener((ob, older, newer) -> write());
         FONT_NAME.addListener((ob, older, newer) -> write());
         FILE_DIRECTORY.addListener((ob, older, newer) -> write());
+        REFRESH_RATE.addListener((ob, older, newer) -> write());
         read();
     }
 
@@ -84,6 +86,12 @@ public class Preferences extends Stage {
                         FILE_DIRECTORY.set(s);
                     }
                 }
+                if (in.hasNextLine()) {
+                    try {
+                        REFRESH_RATE.set(Math.max(1, Integer.parseInt(in.nextLine())));
+                    } catch (NumberFormatException e) {
+                    }
+                }
             } catch (FileNotFoundException ex) {
             }
         }
@@ -97,7 +105,7 @@ public class Preferences extends Stage {
         }
         try {
             Files.write(f.toPath(), FXCollections.observableArrayList(DARK_THEME.get() + "", FONT_SIZE.intValue() + "", FONT_NAME.get(),
-                    FILE_DIRECTORY.get()));
+                    FILE_DIRECTORY.get(), REFRESH_RATE.get() + ""));
         } catch (IOException ex) {
         }
     }
@@ -112,6 +120,7 @@ public class Preferences extends Stage {
     private ComboBox<String> font;
     private Button choose;
     private TextField dir;
+    private Spinner<Integer> rateOption;
 
     public Preferences(Stage stage) {
         initOwner(stage);
@@ -149,13 +158,16 @@ public class Preferences extends Stage {
                 new Label("Font Size"),
                 fontOption = new Spinner<>(5, 50, getFontSize(), 1),
                 new Label("Font"),
-                font = new ComboBox<>(FXCollections.observableArrayList(Font.getFamilies())));
+                font = new ComboBox<>(FXCollections.observableArrayList(Font.getFamilies())),
+                new Label("Refresh Rate While Running (per second)"),
+                rateOption = new Spinner<>(1, 240, getRefreshRate(), 1));
         font.setValue(FONT_NAME.get());
         darkOption.setSelected(getDarkTheme());
         FILE_DIRECTORY.bind(dir.textProperty());
         DARK_THEME.bind(darkOption.selectedProperty());
         FONT_SIZE.bind(fontOption.valueProperty());
         FONT_NAME.bind(font.valueProperty());
+        REFRESH_RATE.bind(rateOption.valueProperty());
         dir.setEditable(false);
         choose.setOnAction((e) -> {
             DirectoryChooser dc = new DirectoryChooser();
@@ -313,4 +325,12 @@ public class Preferences extends Stage {
     public static String getFileDirectory() {
         return FILE_DIRECTORY.get();
     }
+
+    public static IntegerProperty refreshRate() {
+        return REFRESH_RATE;
+    }
+
+    public static int getRefreshRate() {
+        return REFRESH_RATE.get();
+    }
 }
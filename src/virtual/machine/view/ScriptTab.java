@@ -3,9 +3,11 @@ package virtual.machine.view;
 import de.jensd.fx.glyphs.materialdesignicons.MaterialDesignIcon;
 import de.jensd.fx.glyphs.materialdesignicons.MaterialDesignIconView;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.function.IntFunction;
 import java.util.regex.Matcher;
@@ -46,10 +48,9 @@ import org.fxmisc.richtext.model.StyleSpansBuilder;
 import static virtual.machine.Y86VM.ICON;
 import virtual.machine.core.Pair;
 import virtual.machine.core.Script;
-import virtual.machine.core.Strings;
 import virtual.machine.execution.Compiler;
 import virtual.machine.execution.ConcurrentCompiler;
-import virtual.machine.internal.Environment;
+import virtual.machine.execution.Isa;
 
 /**
  *
@@ -65,28 +66,18 @@ public class ScriptTab extends Tab {
     private final VirtualizedScrollPane virtual;
     private final IntegerProperty counterLine = new SimpleIntegerProperty(0);
     private final Pair<Integer, String> errorLines = new Pair<>(-1, "");
+    private int[] lineAddresses = new int[0];
     private IntFunction<Node> numberFactory;
     private IntFunction<Node> arrowFactory;
 
     private final IntegerProperty rowPosition;
 
-    private static final String[] KEYWORDS = new String[]{
-        "jl", "subq", "jge", "cmovge", "jmp", "nop",
-        "xorq", "cmovg", "cmove", "andq",
-        "cmovl", "addq", "rrmovq", "cmovb", "cmovnb", "cmovbe", "cmova",
-        "ja", "jbe", "jbe", "jnb",
-        "irmovq", "jne", "ret", "jle", "rmmovq",
-        "cmovne", "cmovle", "call",
-        "halt", "popq", "pushq", "mrmovq", "je", "jg",
-        "imultq", "divq", "modq", "sarq", "shrq", "salq", "orq",
-        "incq", "decq", "notq", "negq", "bangq",
-        "outq", "outc", "getc", "getq", "outs", "gets"
-    };
-
     private static final String[] DIRECTIVES = new String[]{
         "align", "pos", "quad", "brk"
     };
 
+    private static final String[] KEYWORDS = keywords();
+
     private static final Set<String> CURRENT = new HashSet<>(Compiler.getInstance().getLabels());
 
     private static final String KEYWORD_PATTERN = "\\b(" + String.join("|", KEYWORDS) + ")\\b";
@@ -119,7 +110,13 @@ public class ScriptTab extends Tab {
         return -1;
     }
 
-    public ScriptTab(Script scr, Environment env) {
+    private static String[] keywords() {
+        List<String> list = Isa.mnemonics();
+        list.removeAll(Arrays.asList(DIRECTIVES));
+        return list.toArray(new String[list.size()]);
+    }
+
+    public ScriptTab(Script scr, EnvironmentAdapter env) {
         super(scr.getFile().getName());
         script = scr;
         rowPosition = new SimpleIntegerProperty();
@@ -337,24 +334,23 @@ public class ScriptTab extends Tab {
         });
     }
 
+    /**
+     * Moves the arrow to the last line of the listing at or before the given
+     * address, found by binary search over the address of every line.
+     */
     public void alignCounter(int newValue) {
         if (center.getRight() != null) {
-            int num = 0;
-            boolean found = false;
-            for (int x = 0; x < object.getParagraphs().size(); x++) {
-                if (object.getParagraphs().get(x).getText().length() >= 6) {
-                    String cmp = object.getParagraphs().get(x).getText().substring(0, 6);
-                    if (cmp.compareTo(Strings.getHex(newValue, 4)) <= 0) {
-                        found = true;
-                        num = x;
-                    } else {
-                        if (found) {
-                            break;
-                        }
-                    }
+            int low = 0;
+            int high = lineAddresses.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lineAddresses[mid] <= newValue) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
                 }
             }
-            final int numx = num;
+            final int numx = Math.max(low - 1, 0);
             Platform.runLater(() -> {
                 counterLine.set(numx);
             });
@@ -636,9 +632,11 @@ public class ScriptTab extends Tab {
             center.setRight(null);
         }
         object.replaceText("");
+        lineAddresses = new int[0];
     }
 
-    void setObjectText(String toString) {
+    void setObjectText(String toString, int[] addresses) {
+        lineAddresses = addresses;
         object.appendText(toString);
         center.setRight(virtual);
     }
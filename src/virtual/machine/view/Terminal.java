@@ -83,10 +83,8 @@ public class Terminal extends TextArea {
         });
         setFont(font);
         showPrompt();
-        env.output((s) -> {
-            print(s);
-            return null;
-        });
+        env.output(this::print);
+        env.input(Terminal::scan);
     }
 
     private void disableBackspaceKey() {
@@ -102,11 +100,23 @@ public class Terminal extends TextArea {
     }
 
     public void clear() {
-        recreateStream();
+        release();
         setText("");
         showPrompt();
     }
 
+    /**
+     * Ends the input the machine may be waiting for, so a getc, getq or gets
+     * blocked on the execution thread returns, and starts a new stream for
+     * the next one.
+     */
+    public void release() {
+        if (input != null) {
+            input.close();
+        }
+        recreateStream();
+    }
+
     private void showPrompt() {
         appendText("> ");
     }
@@ -148,7 +158,7 @@ public class Terminal extends TextArea {
     }
 
     private void print(String invalid_Statement) {
-        appendText(invalid_Statement);
+        Platform.runLater(() -> appendText(invalid_Statement));
     }
 
     private void executeCommand(String command) {
@@ -190,10 +200,14 @@ public class Terminal extends TextArea {
 
         private String s;
         int pos;
+        private volatile boolean closed;
 
         @Override
         public int read() throws IOException {
             while (null == s || s.length() <= pos) {
+                if (closed) {
+                    return -1;
+                }
                 try {
                     s = queue.take();
                     pos = 0;
@@ -215,6 +229,9 @@ public class Terminal extends TextArea {
             int bytes_copied = 0;
             while (bytes_copied < 1) {
                 while (null == s || s.length() <= pos) {
+                    if (closed) {
+                        return -1;
+                    }
                     try {
                         s = queue.take();
                         pos = 0;
@@ -238,6 +255,16 @@ public class Terminal extends TextArea {
             queue.add(s + "\r\n");
         }
 
+        /**
+         * Makes reads return end of stream once what was already typed is
+         * used up, waking a reader that is waiting for more.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            queue.add("");
+        }
+
     }
 
 }
@@ -0,0 +1,126 @@
+package virtual.machine.execution;
+
+import java.math.BigInteger;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks the carry and overflow flags of addq, subq and imultq against the
+ * BigInteger computation Alu used before, on the boundary values and on
+ * random pairs.
+ *
+ * @author aniket
+ */
+public class AluTest {
+
+    private static final long[] EDGES = {0, 1, -1, 2, -2, Long.MAX_VALUE, Long.MIN_VALUE,
+        Long.MAX_VALUE - 1, Long.MIN_VALUE + 1, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        1L << 31, 1L << 32, -(1L << 32), 3037000499L, 3037000500L, -3037000499L, -3037000500L,
+        0xFFFFFFFFL, 0x8000000000000001L};
+
+    private static final byte[] OPS = {0x60, 0x61, 0x64};
+
+    private static final int RANDOM_PAIRS = 200_000;
+
+    @Test
+    public void edges() {
+        for (byte op : OPS) {
+            for (long a : EDGES) {
+                for (long b : EDGES) {
+                    check(op, a, b);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void randomPairs() {
+        Random random = new Random(86);
+        for (int x = 0; x < RANDOM_PAIRS; x++) {
+            long a = random.nextLong();
+            long b = random.nextLong();
+            for (byte op : OPS) {
+                check(op, a, b);
+                check(op, a >> random.nextInt(64), b >> random.nextInt(64));
+                check(op, a, EDGES[random.nextInt(EDGES.length)]);
+            }
+        }
+    }
+
+    @Test
+    public void multiplyHigh() {
+        Random random = new Random(64);
+        for (long a : EDGES) {
+            for (long b : EDGES) {
+                assertEquals(a + " * " + b, high(a, b), Alu.multiplyHigh(a, b));
+            }
+        }
+        for (int x = 0; x < RANDOM_PAIRS; x++) {
+            long a = random.nextLong();
+            long b = random.nextLong();
+            assertEquals(a + " * " + b, high(a, b), Alu.multiplyHigh(a, b));
+        }
+    }
+
+    private static void check(byte op, long a, long b) {
+        long result = Alu.compute(op, a, b);
+        assertEquals(Integer.toHexString(op & 0xFF) + " " + a + ", " + b,
+                expected(op, a, b, result), Alu.flags(op, a, b, result));
+    }
+
+    private static long high(long a, long b) {
+        return BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).shiftRight(64).longValue();
+    }
+
+    /**
+     * The flags as Alu worked them out with BigInteger.
+     */
+    private static int expected(byte op, long a, long b, long result) {
+        int flags = 0;
+        if (result == 0) {
+            flags |= Alu.ZERO;
+        }
+        if (result < 0) {
+            flags |= Alu.SIGN;
+        }
+        long asign = a >>> 63;
+        long bsign = b >>> 63;
+        long lsign = result >>> 63;
+        BigInteger r = new BigInteger(Long.toUnsignedString(result));
+        BigInteger ao = new BigInteger(Long.toUnsignedString(a));
+        BigInteger bo = new BigInteger(Long.toUnsignedString(b));
+        switch (op) {
+            case 0x60:
+                if (asign == bsign && asign != lsign) {
+                    flags |= Alu.OVERFLOW;
+                }
+                if (r.compareTo(ao) < 0 || r.compareTo(bo) < 0) {
+                    flags |= Alu.CARRY;
+                }
+                break;
+            case 0x61:
+                if (asign == lsign && asign != bsign) {
+                    flags |= Alu.OVERFLOW;
+                }
+                if (r.compareTo(ao) > 0 || r.compareTo(bo) > 0) {
+                    flags |= Alu.CARRY;
+                }
+                break;
+            default:
+                BigInteger mu = BigInteger.valueOf(b).multiply(BigInteger.valueOf(a));
+                BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+                BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+                if (mu.compareTo(max) < 0 || mu.compareTo(min) < 0) {
+                    flags |= Alu.OVERFLOW;
+                }
+                max = max.shiftLeft(1).add(BigInteger.ONE);
+                min = min.shiftLeft(1);
+                if (mu.compareTo(max) < 0 || mu.compareTo(min) < 0) {
+                    flags |= Alu.CARRY;
+                }
+                break;
+        }
+        return flags;
+    }
+}